@@ -0,0 +1,37 @@
+package com.renye.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * /chat/completions 流式响应的并发参数
+ *
+ * @author 忍
+ */
+@Configuration
+@ConfigurationProperties(prefix = "interview.chat.stream")
+@Data
+public class ChatStreamConfig {
+
+    // 同时进行中的流式响应上限，从开始订阅模型输出到发送 [DONE]（或出错、客户端断开）为止占用一个名额
+    private int maxConcurrentStreams = 2000;
+
+    // 等待名额的请求数上限，超过时直接返回繁忙错误
+    private int maxQueuedRequests = 1000;
+
+    // 单个请求等待名额的最长时间，超时返回繁忙错误
+    private long queueTimeoutMillis = 5000;
+
+    // 小增量合并：模型可能以一两个字为单位输出，每个增量都是一次完整的 JSON 数据块、一个 SSE 事件和一次 flush
+    private Coalesce coalesce = new Coalesce();
+
+    @Data
+    public static class Coalesce {
+        private boolean enabled = true;
+        // 第一个有内容的增量立即发送，之后的增量在该时间窗口内合并为一个数据块
+        private long windowMillis = 30;
+        // 单个数据块最多合并的增量数，达到即发送，不等窗口结束
+        private int maxDeltas = 32;
+    }
+}
@@ -29,6 +29,112 @@ public class KnowledgeBaseConfig {
     // 默认加载的PDF文件名（无论有无tag都可能需要的基础知识）
     private List<String> defaultPdfFiles;
 
+    // 知识库使用的向量存储实现：hnsw（近似最近邻图索引，默认）或 sharded（分片并行精确扫描）。
+    // simple（Spring AI 的 SimpleVectorStore）不再支持：它把 doc_tags == 'java' 当作整串相等，
+    // 而文档的 doc_tags 是逗号分隔的多个标签，按标签过滤会漏掉多标签文档；需要精确扫描时用 sharded
+    private String vectorStore = "hnsw";
 
+    // 向量打分是否使用 SIMD 内核（需 mvn -Psimd 构建且启动参数带 --add-modules jdk.incubator.vector，否则总是标量实现）；
+    // 设为 false 时强制使用标量实现，用于排查或对比
+    private boolean vectorSimd = true;
+
+    // HNSW 索引参数，仅在 vector-store=hnsw 时生效
+    private Hnsw hnsw = new Hnsw();
+
+    @Data
+    public static class Hnsw {
+        // 每个节点的最大邻居数，越大召回越高、内存越多
+        private int m = 16;
+        // 建图时的候选列表大小，越大图质量越好、建图越慢
+        private int efConstruction = 200;
+        // 检索时的候选列表大小，越大召回越高、检索越慢（至少为 topK）
+        private int efSearch = 64;
+        // 向量存储方式：none（全精度 float，精确打分）或 int8（堆内 int8 量化码 + 堆外全精度向量用于重排）。
+        // int8 只把堆内占用降到约 1/4，全精度向量仍在堆外保留一份，总内存约为 none 的 1.25 倍；
+        // 建图和召回改为近似打分，排序可能与 none 略有不同。堆大小受限而堆外内存充足时才考虑 int8
+        private String quantization = "none";
+        // 量化检索时先按近似分数召回 topK × rerankFactor 个候选，再用全精度向量重排
+        private int rerankFactor = 4;
+        // 全精度向量的存放位置：heap（堆内 float[]，仅 quantization=none 时可用）、direct（堆外内存）
+        // 或 mmap（映射到 arena-dir 下本进程独占的临时文件，内存紧张时写回文件而不是依赖 swap；
+        // 多个进程之间不共享，物理内存占用与 direct 相同，且可能有缺页开销，一般用 direct 即可）
+        private String vectorArena = "direct";
+        // vector-arena=mmap 时映射文件所在目录（相对于工作目录），每个进程独立建文件，打开后即解除链接，其他进程无法打开
+        private String arenaDir = "data";
+    }
+
+    // 分片并行检索参数，仅在 vector-store=sharded 时生效；向量存储方式沿用 hnsw.quantization / hnsw.vector-arena
+    private Sharded sharded = new Sharded();
+
+    @Data
+    public static class Sharded {
+        // 分片数，默认与CPU核数一致
+        private int shards = Runtime.getRuntime().availableProcessors();
+        // 文档块数低于该值时单线程扫描全部分片，避免任务调度开销超过扫描本身
+        private int parallelThreshold = 4096;
+    }
+
+    // 向量快照：入库完成后把向量和元数据写盘，下次启动时按PDF内容哈希直接恢复，跳过 embedding
+    private Snapshot snapshot = new Snapshot();
+
+    @Data
+    public static class Snapshot {
+        private boolean enabled = true;
+        // 快照文件路径（相对于工作目录）
+        private String path = "data/knowledge-base.snapshot";
+    }
+
+    // embedding缓存：按 (模型名, 文档块文本) 的哈希缓存向量，PDF局部修改时只对变化的文档块调用 embedding
+    private EmbeddingCache embeddingCache = new EmbeddingCache();
+
+    @Data
+    public static class EmbeddingCache {
+        private boolean enabled = true;
+        // 追加写日志文件路径（相对于工作目录）
+        private String path = "data/embedding-cache.log";
+    }
+
+    // 入库流水线各阶段的并行度，阶段之间通过容量为 queue-capacity 的有界队列连接
+    private Ingest ingest = new Ingest();
+
+    @Data
+    public static class Ingest {
+        // PDF解析是CPU密集型，默认与CPU核数一致
+        private int parseWorkers = Runtime.getRuntime().availableProcessors();
+        private int chunkWorkers = 2;
+        // embedding是网络IO密集型，受限于模型服务的并发限制
+        private int embedWorkers = 4;
+        private int queueCapacity = 16;
+    }
+
+    // 分块：把每页文本按 token 预算切成带重叠的文档块，作为 embedding 和检索的单元
+    private Chunking chunking = new Chunking();
+
+    @Data
+    public static class Chunking {
+        // 关闭时每页PDF作为一个文档块
+        private boolean enabled = true;
+        private int maxTokens = 400;
+        // 小于该值的尾块并入上一块；当前块不足该值时遇到标题也不切分
+        private int minTokens = 80;
+        // 相邻文档块之间重叠的 token 数上限（按整句保留）
+        private int overlapTokens = 60;
+    }
+
+    // 入库 embedding 请求的分批与并发控制
+    private EmbeddingBatch embeddingBatch = new EmbeddingBatch();
+
+    @Data
+    public static class EmbeddingBatch {
+        // 单批最多条数，DashScope text-embedding-v2 单次请求上限为 25 条
+        private int maxBatchSize = 25;
+        // 单批估算 token 上限
+        private int maxBatchTokens = 8192;
+        // 同时在途的批次数上限（所有入库线程共享）
+        private int maxInFlight = 4;
+        private int maxRetries = 3;
+        // 首次重试的退避时间，之后每次翻倍
+        private long initialBackoffMillis = 500;
+    }
 
 }
\ No newline at end of file
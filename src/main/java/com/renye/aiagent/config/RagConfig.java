@@ -0,0 +1,142 @@
+package com.renye.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RAG 检索参数
+ *
+ * @author 忍
+ */
+@Configuration
+@ConfigurationProperties(prefix = "interview.rag")
+@Data
+public class RagConfig {
+
+    // 最终注入提示词的文档块数量
+    private int topK = 3;
+
+    // 多个标签之间的匹配方式：any（命中任一标签即可，按标签分别检索后按配额合并）或 all（同时包含全部标签）
+    private String tagMatch = "any";
+
+    // 按标签分别检索时，每个标签召回的候选数 = max(topK, 配额 * 该倍数)，候选越多合并时可挑选的余地越大
+    private int perTagCandidateFactor = 2;
+
+    // 同时进行检索的标签数上限
+    private int maxParallelTags = 8;
+
+    // 检索方式：vector（仅向量，默认）、hybrid（向量 + BM25，按倒数排名融合，会改变结果排序，需评测后开启）、lexical（仅 BM25，不调用 embedding）
+    private String retrievalMode = "vector";
+
+    private Hybrid hybrid = new Hybrid();
+
+    @Data
+    public static class Hybrid {
+        // 向量检索和 BM25 检索各自召回的候选数，融合后再截取 topK
+        private int candidates = 20;
+        // RRF 公式 1 / (k + rank) 中的 k，越大名次靠后的结果权重衰减越慢
+        private int rrfK = 60;
+        // 计算问题向量的超时时间
+        private long embeddingTimeoutMillis = 3000;
+        // embedding 超时或失败时降级为纯 BM25 检索，而不是放弃本轮 RAG
+        private boolean lexicalFallback = true;
+    }
+
+    // 用户问题的向量缓存，命中时不调用 embedding 接口
+    private QueryEmbeddingCache queryEmbeddingCache = new QueryEmbeddingCache();
+
+    @Data
+    public static class QueryEmbeddingCache {
+        private boolean enabled = true;
+        // 缓存占用上限（按 key 与向量的估算字节数），text-embedding-v2 每个向量约 6KB
+        private long maxBytes = 8L * 1024 * 1024;
+    }
+
+    // 检索结果缓存：相同问题 + 标签集合 + topK 直接复用上次的文档块和渲染好的上下文，知识库变化时自动清空
+    private RetrievalCache retrievalCache = new RetrievalCache();
+
+    @Data
+    public static class RetrievalCache {
+        private boolean enabled = true;
+        private int maxEntries = 1024;
+        private long ttlSeconds = 600;
+    }
+
+    // 进程内轻量重排：先召回较多候选，按检索分、问题词项覆盖、标签匹配加权，再用 MMR 去掉内容相近的文档块
+    private Rerank rerank = new Rerank();
+
+    @Data
+    public static class Rerank {
+        private boolean enabled = true;
+        // 重排前召回的候选数
+        private int candidates = 30;
+        // 检索分（候选内归一化）的权重
+        private double relevanceWeight = 0.6;
+        // 问题词项覆盖率的权重
+        private double overlapWeight = 0.3;
+        // 文档块标签覆盖焦点标签比例的权重
+        private double tagBoost = 0.1;
+        // MMR 中相关度的权重，越小越偏向多样性
+        private double mmrLambda = 0.6;
+    }
+
+    // 推测式检索预取：候选人作答时前端用语音识别的中间结果调用 /chat/prefetch，提前完成检索
+    private Prefetch prefetch = new Prefetch();
+
+    @Data
+    public static class Prefetch {
+        private boolean enabled = true;
+        // 规范化后少于该字数的中间结果不预取
+        private int minChars = 6;
+        // 预取文本是最终问题的前缀时，长度至少占最终问题的比例才直接使用
+        private double minCoverage = 0.8;
+        // 最终请求到达时预取尚未完成，最多等待的时间，超时后照常检索
+        private long maxWaitMillis = 1500;
+        // 预取结果的有效期
+        private long ttlSeconds = 120;
+        // 同时保留预取结果的会话数上限
+        private int maxSessions = 10000;
+    }
+
+    // 语义回答缓存：会话开头几轮（问好、自我介绍）按 (指纹, 用户消息向量) 复用模型的完整回答，命中时按真实节奏重放
+    private AnswerCache answerCache = new AnswerCache();
+
+    @Data
+    public static class AnswerCache {
+        // 默认关闭，开启前确认开场白在不同候选人之间可以共用
+        private boolean enabled = false;
+        // 只对包含当前消息在内的前若干条用户消息生效
+        private int maxUserTurns = 1;
+        // 用户消息向量的余弦相似度不低于该值才算命中
+        private double similarityThreshold = 0.95;
+        // 指纹是否包含系统提示词：系统提示词含候选人的简历，包含时只在系统提示词完全相同的会话之间命中。
+        // 关闭后不同候选人之间会复用回答，而开场白可能引用简历内容，只有确认开场白与简历无关时才能关闭
+        private boolean includeSystemPrompt = true;
+        private int maxEntries = 256;
+        private long ttlSeconds = 3600;
+        // 重放时每段的字数和段间隔，模拟模型的流式输出节奏
+        private int replayCharsPerChunk = 4;
+        private long replayIntervalMillis = 40;
+    }
+
+    // 上下文装箱：按 token 预算装入检索到的文档块，去掉文档块之间重复的句子，超长的块只保留与问题最相关的句子
+    private Context context = new Context();
+
+    @Data
+    public static class Context {
+        // 关闭时检索到的文档块原样全部拼入提示词
+        private boolean enabled = true;
+        // 对话模型不在 model-budget-tokens 中时使用的预算
+        private int defaultBudgetTokens = 1200;
+        // 按对话模型（spring.ai.dashscope.chat.options.model）区分的上下文预算
+        private Map<String, Integer> modelBudgetTokens = new HashMap<>();
+        // 单个文档块最多占用的 token 数
+        private int maxPassageTokens = 500;
+        // 去重后不足该 token 数的文档块跳过；剩余预算不足该值时停止装入
+        private int minPassageTokens = 20;
+    }
+}
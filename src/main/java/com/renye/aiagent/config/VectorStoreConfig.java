@@ -1,14 +1,23 @@
 package com.renye.aiagent.config; // 请替换为您的实际配置包路径
 
-import jakarta.annotation.Resource;
+import com.renye.aiagent.vectorstore.Bm25Index;
+import com.renye.aiagent.vectorstore.FloatVectorStorage;
+import com.renye.aiagent.vectorstore.HnswVectorStore;
+import com.renye.aiagent.vectorstore.Int8VectorStorage;
+import com.renye.aiagent.vectorstore.KnowledgeVectorStore;
+import com.renye.aiagent.vectorstore.OffHeapVectorStorage;
+import com.renye.aiagent.vectorstore.ShardedVectorStore;
+import com.renye.aiagent.vectorstore.VectorArena;
+import com.renye.aiagent.vectorstore.VectorMath;
+import com.renye.aiagent.vectorstore.VectorStorage;
 import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 
 /**
  * @author 忍
@@ -18,18 +27,83 @@ public class VectorStoreConfig {
 
     private static final Logger log = LoggerFactory.getLogger(VectorStoreConfig.class);
 
+    // 堆外向量区每段容纳的向量数，1536 维时每段 6MB
+    private static final int ARENA_VECTORS_PER_SEGMENT = 1024;
+
     @Bean
-    public VectorStore simpleVectorStore(EmbeddingModel embeddingModel) {
+    public VectorStore vectorStore(EmbeddingModel embeddingModel, KnowledgeBaseConfig knowledgeBaseConfig) {
         if (embeddingModel == null) {
-            log.error("EmbeddingModel bean is null! Cannot create SimpleVectorStore.");
-            throw new IllegalStateException("EmbeddingModel bean is required to create SimpleVectorStore but was not found. " +
+            log.error("EmbeddingModel bean is null! Cannot create VectorStore.");
+            throw new IllegalStateException("EmbeddingModel bean is required to create VectorStore but was not found. " +
                     "Please ensure an EmbeddingModel (e.g., DashScopeEmbeddingModel) is correctly configured.");
         }
-        log.info("正在创建 SimpleVectorStore bean (通过 Builder)，使用的 EmbeddingModel 类型: {}", embeddingModel.getClass().getName());
+        // 在任何向量存储创建之前选定计算内核
+        VectorMath.configure(knowledgeBaseConfig.isVectorSimd());
+        String type = knowledgeBaseConfig.getVectorStore();
+        if ("simple".equalsIgnoreCase(type)) {
+            // SimpleVectorStore 用 SpEL 对整个 doc_tags 字符串做相等比较，"java,spring" 的文档匹配不到 doc_tags == 'java'，
+            // 与 hnsw / sharded 的"含有该标签"语义不同，检索结果会悄悄变少，因此直接拒绝启动
+            throw new IllegalStateException("interview.knowledge-base.vector-store=simple 不支持按 doc_tags 标签过滤"
+                    + "（SimpleVectorStore 只能整串比较），请改用 hnsw，或需要精确扫描时使用 sharded");
+        }
+        KnowledgeBaseConfig.Hnsw hnsw = knowledgeBaseConfig.getHnsw();
+        if ("sharded".equalsIgnoreCase(type)) {
+            KnowledgeBaseConfig.Sharded sharded = knowledgeBaseConfig.getSharded();
+            log.info("正在创建 ShardedVectorStore bean: 分片={}, 并行阈值={}, 量化={}, 向量区={}, EmbeddingModel 类型: {}",
+                    sharded.getShards(), sharded.getParallelThreshold(), hnsw.getQuantization(), hnsw.getVectorArena(),
+                    embeddingModel.getClass().getName());
+            return new ShardedVectorStore(embeddingModel, sharded.getShards(), sharded.getParallelThreshold(),
+                    () -> vectorStorage(hnsw), hnsw.getRerankFactor());
+        }
+        if (!"hnsw".equalsIgnoreCase(type)) {
+            throw new IllegalStateException("不支持的 interview.knowledge-base.vector-store: " + type + "，可选值: hnsw, sharded");
+        }
+
+        VectorStorage vectorStorage = vectorStorage(hnsw);
+        log.info("正在创建 HnswVectorStore bean: M={}, efConstruction={}, efSearch={}, 量化={}, 向量区={}, EmbeddingModel 类型: {}",
+                hnsw.getM(), hnsw.getEfConstruction(), hnsw.getEfSearch(), hnsw.getQuantization(), hnsw.getVectorArena(),
+                embeddingModel.getClass().getName());
+        return new HnswVectorStore(embeddingModel, hnsw.getM(), hnsw.getEfConstruction(), hnsw.getEfSearch(),
+                vectorStorage, hnsw.getRerankFactor());
+    }
+
+    private VectorStorage vectorStorage(KnowledgeBaseConfig.Hnsw hnsw) {
+        String arena = hnsw.getVectorArena().toLowerCase();
+        if (!arena.equals("heap") && !arena.equals("direct") && !arena.equals("mmap")) {
+            throw new IllegalStateException("不支持的 interview.knowledge-base.hnsw.vector-arena: "
+                    + hnsw.getVectorArena() + "，可选值: heap, direct, mmap");
+        }
+        return switch (hnsw.getQuantization().toLowerCase()) {
+            case "none" -> arena.equals("heap")
+                    ? new FloatVectorStorage()
+                    : new OffHeapVectorStorage(vectorArena(arena, hnsw));
+            case "int8" -> {
+                if (arena.equals("heap")) {
+                    log.warn("quantization=int8 时全精度向量总是放在堆外，vector-arena=heap 按 direct 处理");
+                }
+                yield new Int8VectorStorage(vectorArena(arena, hnsw));
+            }
+            default -> throw new IllegalStateException("不支持的 interview.knowledge-base.hnsw.quantization: "
+                    + hnsw.getQuantization() + "，可选值: none, int8");
+        };
+    }
 
-        return SimpleVectorStore.builder(embeddingModel)
-                .build();
+    private VectorArena vectorArena(String arena, KnowledgeBaseConfig.Hnsw hnsw) {
+        return arena.equals("mmap")
+                ? VectorArena.mapped(Path.of(hnsw.getArenaDir()), ARENA_VECTORS_PER_SEGMENT)
+                : VectorArena.direct(ARENA_VECTORS_PER_SEGMENT);
+    }
 
+    /**
+     * BM25 词法索引，与 VectorStore 同步由 DocumentLoadingService 写入，供混合检索和 embedding 不可用时的降级检索使用
+     */
+    @Bean
+    public Bm25Index bm25Index(VectorStore vectorStore) {
+        if (vectorStore instanceof KnowledgeVectorStore knowledgeVectorStore) {
+            // 只存文档id，命中后到 VectorStore 取文档，避免正文在堆上存两份
+            return new Bm25Index(knowledgeVectorStore::getById);
+        }
+        return new Bm25Index();
     }
 }
 
@@ -3,11 +3,18 @@ package com.renye.aiagent.controller;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.renye.aiagent.dto.ChatStreamStats;
 import com.renye.aiagent.dto.CurrentInterviewContextPojo;
+import com.renye.aiagent.dto.PrefetchRequest;
 import com.renye.aiagent.dto.openai.*;
 import com.renye.aiagent.service.AiInterviewerService;
+import com.renye.aiagent.service.ChatResponseCoalescer;
+import com.renye.aiagent.service.ChatStreamExecutor;
 import com.renye.aiagent.service.CurrentInterviewContextService;
 import com.renye.aiagent.service.RagService;
+import com.renye.aiagent.service.RetrievalPrefetcher;
+import com.renye.aiagent.util.OpenAIChunkWriter;
+import com.renye.aiagent.util.OpenAIStreamProcessor;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,16 +26,19 @@ import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
 import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -50,8 +60,17 @@ public class ChatController {
     @Resource
     private CurrentInterviewContextService currentInterviewContextService;
 
+    @Resource
+    private RetrievalPrefetcher retrievalPrefetcher;
+
 
-    private final ExecutorService sseExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // 虚拟线程上启动流式响应，并发上限和排队上限见 interview.chat.stream
+    @Resource
+    private ChatStreamExecutor chatStreamExecutor;
+
+    // 合并模型的小增量后再序列化发送，见 interview.chat.stream.coalesce
+    @Resource
+    private ChatResponseCoalescer chatResponseCoalescer;
 
     // 确保ObjectMapper配置为不序列化null值，特别是对于delta对象
     public ChatController(ObjectMapper objectMapper) {
@@ -89,13 +108,35 @@ public class ChatController {
     }
 
 
-    @PostMapping("/completions")
-    public SseEmitter handleChatCompletions(@RequestBody OpenAIChatRequest openAiRequest) {
-        try {
-            log.info("Chat Completions 初始请求: {}", objectMapper.writeValueAsString(openAiRequest));
-        } catch (JsonProcessingException e) {
-            log.warn("记录请求JSON时出错: {}", e.getMessage());
+    /**
+     * 检索预取：候选人作答过程中用语音识别的中间结果提前检索知识库，
+     * 随后同一会话的 /chat/completions 请求问题与之匹配时直接使用预取结果。立即返回，不等待检索完成
+     */
+    @PostMapping("/prefetch")
+    public ResponseEntity<Void> prefetch(@RequestBody PrefetchRequest request) {
+        if (!StringUtils.hasText(request.interviewSessionId())) {
+            return ResponseEntity.badRequest().build();
         }
+        // 与 /completions 使用相同的标签来源，保证预取结果可以被直接使用
+        List<String> tagsForRag = currentInterviewContextService.get()
+                .map(CurrentInterviewContextPojo::getRelevantTagsForRag)
+                .orElse(null);
+        retrievalPrefetcher.prefetch(request.interviewSessionId(), request.partialTranscript(), tagsForRag);
+        return ResponseEntity.accepted().build();
+    }
+
+    /**
+     * 一轮对话的输入：发送给 RagService 的消息（含系统提示词）、RAG 标签、当前面试上下文（可为空）
+     * 和要记入对话记录的最新用户消息（可为空串）
+     */
+    private record ChatTurn(List<Message> messages, List<String> tagsForRag, CurrentInterviewContextPojo interviewContext,
+                            String latestUserMessage) {
+    }
+
+    /**
+     * 根据当前面试上下文和客户端消息构建本轮对话的输入，/completions 和 /completions/reactive 共用
+     */
+    private ChatTurn prepareChatTurn(OpenAIChatRequest openAiRequest) {
         // 1. 从 CurrentInterviewContextService 获取当前面试上下文
         Optional<CurrentInterviewContextPojo> contextOptional = currentInterviewContextService.get();
 
@@ -137,6 +178,7 @@ public class ChatController {
                 if ("user".equalsIgnoreCase(role)) {
                     messagesForRag.add(new UserMessage(contentText));
                     userMessageFound = true;
+                    latestUserMessageContentForTranscript = contentText;
                 } else if ("assistant".equalsIgnoreCase(role)) {
                     messagesForRag.add(new AssistantMessage(contentText));
                 }
@@ -145,14 +187,42 @@ public class ChatController {
         if (!userMessageFound) {
             log.warn("处理的请求中未找到有效的用户消息。AI将仅基于系统提示行动。");
         }
-        // 【记录用户消息到Transcript】
-        // 我们应该在确认用户消息有效后再记录
-        if (StringUtils.hasText(latestUserMessageContentForTranscript)) {
-            if (interviewContext != null) {
-                interviewContext.addMessageToTranscript("user", latestUserMessageContentForTranscript);
+        return new ChatTurn(messagesForRag, tagsForRag, interviewContext, latestUserMessageContentForTranscript);
+    }
+
+    /**
+     * 【记录用户消息到Transcript】
+     * 取得并发名额、确定要调用模型后才记录：因繁忙被拒绝的请求不留下没有回复的用户消息，客户端重试也不会重复记录
+     */
+    private void recordUserMessage(ChatTurn turn) {
+        String userMessage = turn.latestUserMessage();
+        if (StringUtils.hasText(userMessage)) {
+            if (turn.interviewContext() != null) {
+                turn.interviewContext().addMessageToTranscript("user", userMessage);
             }
-            log.info("Transcript: 添加用户消息: {}", latestUserMessageContentForTranscript.substring(0, Math.min(50, latestUserMessageContentForTranscript.length())));
+            log.info("Transcript: 添加用户消息: {}", userMessage.substring(0, Math.min(50, userMessage.length())));
         }
+    }
+
+    /**
+     * 流式响应的并发统计：进行中、排队中、累计开始 / 结束 / 拒绝 / 因客户端断开取消数
+     */
+    @GetMapping("/stream-stats")
+    public ChatStreamStats streamStats() {
+        return chatStreamExecutor.stats();
+    }
+
+    @PostMapping("/completions")
+    public SseEmitter handleChatCompletions(@RequestBody OpenAIChatRequest openAiRequest) {
+        try {
+            log.info("Chat Completions 初始请求: {}", objectMapper.writeValueAsString(openAiRequest));
+        } catch (JsonProcessingException e) {
+            log.warn("记录请求JSON时出错: {}", e.getMessage());
+        }
+        ChatTurn turn = prepareChatTurn(openAiRequest);
+        List<String> tagsForRag = turn.tagsForRag();
+        List<Message> messagesForRag = turn.messages();
+        CurrentInterviewContextPojo interviewContext = turn.interviewContext();
 
         String requestedModelName = openAiRequest.model != null ? openAiRequest.model : "qwen-turbo";
         boolean includeUsage = openAiRequest.streamOptions != null && Boolean.TRUE.equals(openAiRequest.streamOptions.includeUsage);
@@ -180,30 +250,73 @@ public class ChatController {
         final AtomicReference<Usage> finalUsageFromStream = new AtomicReference<>(null); // final for lambda
         final String finalRequestedModelName = openAiRequest.model != null ? openAiRequest.model : "qwen-turbo"; // final
         final boolean finalIncludeUsage = openAiRequest.streamOptions != null && Boolean.TRUE.equals(openAiRequest.streamOptions.includeUsage); // final
-
-
-        emitter.onCompletion(() -> log.info("SseEmitter is completed for streamId: {}", streamId));
+        // id、created、model 预先渲染，每个token只转义并追加delta内容
+        final OpenAIChunkWriter chunkWriter = new OpenAIChunkWriter(streamId, createdTimestamp, requestedModelName);
+
+
+        // 流结束时归还并发名额，由执行器在启动任务时设置
+        final AtomicReference<Runnable> releaseStreamPermit = new AtomicReference<>(() -> { });
+        // 对模型流式输出的订阅；客户端断开（关闭页面）时立即取消，模型不再继续生成
+        final AtomicReference<Disposable> upstreamSubscription = new AtomicReference<>();
+        final AtomicBoolean upstreamTerminated = new AtomicBoolean(false);
+        final AtomicBoolean emitterClosed = new AtomicBoolean(false);
+        final AtomicBoolean upstreamCancelled = new AtomicBoolean(false);
+        final Runnable cancelUpstream = () -> {
+            Disposable subscription = upstreamSubscription.get();
+            if (subscription == null || upstreamTerminated.get() || !upstreamCancelled.compareAndSet(false, true)) {
+                return;
+            }
+            subscription.dispose();
+            chatStreamExecutor.recordCancelled();
+            log.info("Stream ID {}: 客户端已断开，取消模型流式输出。", streamId);
+        };
+        emitter.onCompletion(() -> {
+            log.info("SseEmitter is completed for streamId: {}", streamId);
+            emitterClosed.set(true);
+            cancelUpstream.run();
+            releaseStreamPermit.get().run();
+        });
+        emitter.onError(error -> {
+            emitterClosed.set(true);
+            cancelUpstream.run();
+            releaseStreamPermit.get().run();
+        });
         emitter.onTimeout(() -> { log.warn("SseEmitter timed out for streamId: {}", streamId); emitter.complete();});
 
 
-        Flux<ChatResponse> chatResponseFlux = ragService.streamWithRag(
-                messagesForRag,
-                tagsForRag
-        );
+        // 语义缓存查找、预取等待、embedding 和检索都是阻塞的：延迟到执行器任务中订阅时才执行，
+        // 跑在虚拟线程上并受并发名额限制，被拒绝的请求不会消耗 embedding 调用
+        // 合并器按时间刷出时数据块在 Schedulers.parallel() 的定时线程上发出，而下面的 SseEmitter.send 是阻塞写，
+        // 慢客户端会卡住这些 CPU 线程（全局共享，个数等于核数），因此切到 boundedElastic 上发送
+        Flux<ChatResponse> chatResponseFlux = chatResponseCoalescer.coalesce(Flux.defer(() -> ragService.streamWithRag(
+                        messagesForRag,
+                        tagsForRag,
+                        openAiRequest.interviewSessionId
+                )))
+                .publishOn(Schedulers.boundedElastic());
         // 用于聚合AI的完整回复
         StringBuilder aiResponseAggregator = new StringBuilder();
-        sseExecutor.execute(() -> {
+        chatStreamExecutor.execute(release -> {
+            releaseStreamPermit.set(release);
+            if (emitterClosed.get()) {
+                // 排队期间客户端已经断开，不再订阅模型输出
+                log.info("Stream ID {}: 客户端在排队期间已断开，不再调用模型。", streamId);
+                chatStreamExecutor.recordCancelled();
+                release.run();
+                return;
+            }
+            recordUserMessage(turn);
             try {
                 emitter.send(SseEmitter.event().comment("stream_opened")); // 初始"心跳"
                 log.info("SSE Task Started. Stream ID: {}", streamId);
 
-                chatResponseFlux.map(springChatResponseChunk -> {
+                Disposable subscription = chatResponseFlux.map(springChatResponseChunk -> {
                             // --- 开始核心转换逻辑 (原OpenAIStreamProcessor.formatToStreamingChunk的逻辑) ---
-                            OpenAIDelta delta = new OpenAIDelta();
+                            String deltaRole = null;
+                            String deltaContent = null;
                             String finalFinishReasonForThisChunk = null; // 最终放入OpenAI JSON的finish_reason
                             String currentChunkContent = "";
                             OpenAIUsage usageForThisChunk = null;
-                            String systemFingerprint = null; // 可选
 
                             Generation generation = (springChatResponseChunk.getResults() != null && !springChatResponseChunk.getResults().isEmpty())
                                     ? springChatResponseChunk.getResults().getFirst() : null;
@@ -234,21 +347,21 @@ public class ChatController {
                             boolean hasContent = (currentChunkContent != null && !currentChunkContent.isEmpty());
 
                             if (!isFirstChunkProcessed.get()) { // 这是流中的第一个被处理的ChatResponse块
-                                delta.role = "assistant";
+                                deltaRole = "assistant";
                                 if (hasContent) {
-                                    delta.content = currentChunkContent;
+                                    deltaContent = currentChunkContent;
                                 } else if (finalFinishReasonForThisChunk == null) { // 第一个块，没内容，也没结束
-                                    delta.content = ""; // 发送空内容确保delta不只有role
+                                    deltaContent = ""; // 发送空内容确保delta不只有role
                                 }
                                 isFirstChunkProcessed.set(true); // 标记第一个块已处理（role已发送）
                             } else if (hasContent) { // 非第一个块，但有内容
-                                delta.content = currentChunkContent;
+                                deltaContent = currentChunkContent;
                             } else if (finalFinishReasonForThisChunk != null) { // 结束块，但没内容
-                                // delta保持为空对象 (Jackson NON_NULL会处理成 {})
+                                // delta保持为空对象 {}
                             } else {
                                 // 中间的空内容块，可以发送一个带有空content的delta，或根据需要跳过
                                 // 为确保客户端持续收到响应，发送空content通常更好
-                                delta.content = "";
+                                deltaContent = "";
                             }
 
 
@@ -260,21 +373,13 @@ public class ChatController {
                                         lastUsage.getTotalTokens());
                             }
 
-                            OpenAIStreamChoice streamChoice = new OpenAIStreamChoice(0, delta, finalFinishReasonForThisChunk);
-                            OpenAIChatCompletionChunk chunkForClient = new OpenAIChatCompletionChunk(
-                                    streamId, createdTimestamp, requestedModelName,
-                                    List.of(streamChoice), systemFingerprint, usageForThisChunk);
-
-                            try {
-                                return objectMapper.writeValueAsString(chunkForClient);
-                            } catch (JsonProcessingException e) {
-                                log.error("Stream ID {}: 序列化OpenAI数据块DTO失败: {}", streamId, e.getMessage(), e);
-                                throw new RuntimeException("Chunk DTO serialization error", e);
-                            }
+                            return chunkWriter.write(deltaRole, deltaContent, finalFinishReasonForThisChunk, usageForThisChunk);
                             // --- 核心转换逻辑结束 ---
                         })
                         .filter(Objects::nonNull) // 过滤掉转换逻辑中可能返回的null (例如，如果我们决定跳过某些空块)
+                        .doFinally(signal -> release.run())
                         .doOnTerminate(() -> { // 当Flux结束时（正常完成或出错）记录AI的完整回复
+                            upstreamTerminated.set(true);
                             String fullAiResponse = aiResponseAggregator.toString();
                             if (StringUtils.hasText(fullAiResponse)) {
                                 if (interviewContext != null) {
@@ -287,8 +392,12 @@ public class ChatController {
                                 jsonChunkString -> {
                                     try {
                                         emitter.send(SseEmitter.event().data(jsonChunkString));
-                                    } catch (IOException e) {
-                                        throw new RuntimeException("SSE send error", e); // 会被doOnError捕获
+                                    } catch (IOException | IllegalStateException e) {
+                                        // 写入失败说明客户端已断开（或 emitter 已关闭），直接取消订阅，不再走错误事件
+                                        log.debug("Stream ID {}: 发送SSE数据失败: {}", streamId, e.getMessage());
+                                        emitterClosed.set(true);
+                                        cancelUpstream.run();
+                                        emitter.completeWithError(e);
                                     }
                                 },
                                 error -> { // Flux流处理过程中的错误
@@ -313,13 +422,85 @@ public class ChatController {
                                     }
                                 }
                         );
-            } catch (Exception e) { // sseExecutor.execute() lambda 中同步代码的异常
+                upstreamSubscription.set(subscription);
+                if (emitterClosed.get()) {
+                    // 订阅期间客户端已经断开
+                    cancelUpstream.run();
+                }
+            } catch (Exception e) { // chatStreamExecutor.execute() lambda 中同步代码的异常
                 log.error("Stream ID {}: SseEmitter异步任务启动时发生意外错误: {}", streamId, e.getMessage(), e);
+                release.run();
                 emitter.completeWithError(e);
             }
+        }, () -> {
+            try {
+                String errorPayload = "{\"error\": {\"message\": \"Server is busy, please retry later.\", \"type\": \"server_busy\"}}";
+                emitter.send(SseEmitter.event().name("error").data(errorPayload));
+                emitter.complete();
+            } catch (IOException e) { emitter.completeWithError(e); }
         });
 
         log.info("Controller 已返回 SseEmitter. Stream ID: {}", streamId);
         return emitter;
     }
-}
\ No newline at end of file
+
+    /**
+     * /completions 的响应式版本：直接返回 SSE 事件流，不需要 SseEmitter 和启动线程，等待模型输出期间不占用任何线程。
+     * Spring MVC 在上一个事件写出后才请求下一个，慢客户端的背压会一直传到模型的流式输出；
+     * 数据块由 {@link OpenAIStreamProcessor} 生成，格式与 /completions 相同；并发名额和排队上限也与 /completions 共用
+     */
+    @PostMapping(value = "/completions/reactive", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> handleChatCompletionsReactive(@RequestBody OpenAIChatRequest openAiRequest) {
+        if (!Boolean.TRUE.equals(openAiRequest.stream)) {
+            log.warn("收到非流式请求，但此端点只支持流式。认为非法请求");
+            String errorPayload = "{\"error\": {\"message\": \"Non-streaming is not supported in this endpoint. Please use stream=true.\", \"type\": \"invalid_request_error\"}}";
+            return Flux.just(ServerSentEvent.builder(errorPayload).event("error").build());
+        }
+        ChatTurn turn = prepareChatTurn(openAiRequest);
+        String requestedModelName = openAiRequest.model != null ? openAiRequest.model : "qwen-turbo";
+        boolean includeUsage = openAiRequest.streamOptions != null && Boolean.TRUE.equals(openAiRequest.streamOptions.includeUsage);
+        OpenAIStreamProcessor streamProcessor = new OpenAIStreamProcessor(requestedModelName, includeUsage);
+        log.info("处理响应式流式请求: model={}, tags={}", requestedModelName, turn.tagsForRag());
+
+        // 用于聚合AI的完整回复
+        StringBuilder aiResponseAggregator = new StringBuilder();
+        // 检索（embedding 调用）是阻塞的，延迟到订阅时执行：由 chatStreamExecutor.limit 在取得名额后于虚拟线程上订阅，
+        // 请求线程立即返回，被拒绝的请求不会消耗 embedding 调用，也不会记录用户消息
+        Flux<ChatResponse> chatResponseFlux = Flux.defer(() -> {
+                    recordUserMessage(turn);
+                    return ragService.streamWithRag(turn.messages(), turn.tagsForRag(), openAiRequest.interviewSessionId);
+                })
+                .transform(chatResponseCoalescer::coalesce)
+                .doOnNext(response -> {
+                    Generation generation = response.getResult();
+                    if (generation != null && generation.getOutput() != null && generation.getOutput().getContent() != null) {
+                        aiResponseAggregator.append(generation.getOutput().getContent());
+                    }
+                })
+                .doOnTerminate(() -> {
+                    String fullAiResponse = aiResponseAggregator.toString();
+                    if (StringUtils.hasText(fullAiResponse) && turn.interviewContext() != null) {
+                        turn.interviewContext().addMessageToTranscript("assistant", fullAiResponse);
+                    }
+                });
+        Flux<ServerSentEvent<String>> events = streamProcessor.process(chatResponseFlux)
+                .map(payload -> ServerSentEvent.builder(payload).build())
+                .startWith(ServerSentEvent.<String>builder().comment("stream_opened").build())
+                .onErrorResume(error -> {
+                    log.error("响应式SSE流处理错误: {}", error.getMessage(), error);
+                    String message = error.getMessage() != null ? error.getMessage().replace("\"", "'") : error.getClass().getSimpleName();
+                    String errorJson = "{\"error\":{\"message\":\"Stream processing error: " + message + "\",\"type\":\"internal_server_error\"}}";
+                    return Flux.just(ServerSentEvent.builder(errorJson).event("error").build());
+                });
+        // 与 /completions 共用并发名额：订阅时取得，流结束或客户端断开时归还
+        return chatStreamExecutor.limit(events, () -> {
+                    String errorPayload = "{\"error\": {\"message\": \"Server is busy, please retry later.\", \"type\": \"server_busy\"}}";
+                    return Flux.just(ServerSentEvent.builder(errorPayload).event("error").build());
+                })
+                // 客户端断开时 Spring MVC 取消订阅，取消信号沿链路传到模型的流式输出
+                .doOnCancel(() -> {
+                    chatStreamExecutor.recordCancelled();
+                    log.info("响应式SSE: 客户端已断开，取消模型流式输出。");
+                });
+    }
+}
@@ -0,0 +1,40 @@
+package com.renye.aiagent.controller;
+
+import com.renye.aiagent.dto.KnowledgeBaseStatus;
+import com.renye.aiagent.service.KnowledgeBaseProgress;
+import jakarta.annotation.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 知识库预热状态
+ *
+ * @author 忍
+ */
+@CrossOrigin
+@RestController
+@RequestMapping("/knowledge-base")
+public class KnowledgeBaseController {
+
+    @Resource
+    private KnowledgeBaseProgress knowledgeBaseProgress;
+
+    /**
+     * 预热进度：已解析页数、已索引文档块数等
+     */
+    @GetMapping("/status")
+    public KnowledgeBaseStatus status() {
+        return knowledgeBaseProgress.snapshot();
+    }
+
+    /**
+     * 就绪探针：预热完成返回 200，否则返回 503。
+     * 服务本身在预热期间即可处理请求（RAG降级），只有需要完整知识库的场景才应使用此探针。
+     */
+    @GetMapping("/readiness")
+    public ResponseEntity<KnowledgeBaseStatus> readiness() {
+        KnowledgeBaseStatus status = knowledgeBaseProgress.snapshot();
+        return ResponseEntity.status(status.ready() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(status);
+    }
+}
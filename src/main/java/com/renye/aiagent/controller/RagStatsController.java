@@ -0,0 +1,49 @@
+package com.renye.aiagent.controller;
+
+import com.renye.aiagent.dto.CacheStats;
+import com.renye.aiagent.service.QueryEmbeddingCache;
+import com.renye.aiagent.service.RetrievalCache;
+import com.renye.aiagent.service.RetrievalPrefetcher;
+import com.renye.aiagent.service.SemanticAnswerCache;
+import jakarta.annotation.Resource;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * RAG 检索链路的运行统计
+ *
+ * @author 忍
+ */
+@CrossOrigin
+@RestController
+@RequestMapping("/rag")
+public class RagStatsController {
+
+    @Resource
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    @Resource
+    private RetrievalCache retrievalCache;
+
+    @Resource
+    private RetrievalPrefetcher retrievalPrefetcher;
+
+    @Resource
+    private SemanticAnswerCache semanticAnswerCache;
+
+    /**
+     * 各级缓存的命中率、条目数和估算占用
+     */
+    @GetMapping("/stats")
+    public Map<String, CacheStats> stats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put("queryEmbeddingCache", queryEmbeddingCache.stats());
+        stats.put("retrievalCache", retrievalCache.stats());
+        // 命中即最终请求直接使用了预取结果，条目数为当前保留预取结果的会话数
+        stats.put("retrievalPrefetch", retrievalPrefetcher.stats());
+        stats.put("answerCache", semanticAnswerCache.stats());
+        return stats;
+    }
+}
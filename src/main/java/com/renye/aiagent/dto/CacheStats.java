@@ -0,0 +1,26 @@
+package com.renye.aiagent.dto;
+
+/**
+ * 进程内缓存的运行统计
+ *
+ * @param hits      命中次数
+ * @param misses    未命中次数
+ * @param hitRate   命中率，尚无请求时为 0
+ * @param evictions 因容量或过期被淘汰的条目数
+ * @param entries   当前条目数
+ * @param sizeBytes 当前条目估算占用的字节数
+ */
+public record CacheStats(
+        long hits,
+        long misses,
+        double hitRate,
+        long evictions,
+        int entries,
+        long sizeBytes
+) {
+
+    public static CacheStats of(long hits, long misses, long evictions, int entries, long sizeBytes) {
+        long total = hits + misses;
+        return new CacheStats(hits, misses, total == 0 ? 0 : (double) hits / total, evictions, entries, sizeBytes);
+    }
+}
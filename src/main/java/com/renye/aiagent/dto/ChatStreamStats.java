@@ -0,0 +1,23 @@
+package com.renye.aiagent.dto;
+
+/**
+ * 流式响应执行器的运行统计
+ *
+ * @param activeStreams        进行中的流式响应数
+ * @param queuedRequests       正在等待名额的请求数
+ * @param maxConcurrentStreams 进行中的流式响应上限
+ * @param started              累计开始的流式响应数
+ * @param completed            累计结束的流式响应数（正常完成、出错或客户端断开）
+ * @param rejected             累计因排队已满或等待超时被拒绝的请求数
+ * @param cancelled            累计因客户端断开而取消的模型流式输出数（含响应式端点）
+ */
+public record ChatStreamStats(
+        int activeStreams,
+        int queuedRequests,
+        int maxConcurrentStreams,
+        long started,
+        long completed,
+        long rejected,
+        long cancelled
+) {
+}
@@ -0,0 +1,26 @@
+package com.renye.aiagent.dto;
+
+/**
+ * 知识库预热进度
+ *
+ * @param state          NOT_STARTED / LOADING / READY / FAILED
+ * @param ready          预热是否已完成，完成前 RAG 以降级方式（无RAG或部分索引）工作
+ * @param totalFiles     待加载的PDF文件总数
+ * @param loadedFiles    已写入索引（或从快照恢复）的文件数
+ * @param failedFiles    加载失败的文件数
+ * @param parsedPages    已解析的PDF页数
+ * @param indexedChunks  已写入索引、可被检索的文档块数
+ * @param elapsedMillis  预热已耗时（完成后为总耗时）
+ * @param error          失败原因，仅 FAILED 时有值
+ */
+public record KnowledgeBaseStatus(
+        String state,
+        boolean ready,
+        int totalFiles,
+        int loadedFiles,
+        int failedFiles,
+        long parsedPages,
+        long indexedChunks,
+        long elapsedMillis,
+        String error
+) {}
@@ -0,0 +1,11 @@
+package com.renye.aiagent.dto;
+
+/**
+ * 检索预取请求：候选人作答过程中，前端把语音识别的中间结果发给后端
+ *
+ * @param interviewSessionId 面试会话id，与随后 /chat/completions 请求中的 interviewSessionId 一致
+ * @param partialTranscript  到目前为止识别出的回答文本
+ * @author 忍
+ */
+public record PrefetchRequest(String interviewSessionId, String partialTranscript) {
+}
@@ -0,0 +1,90 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.ChatStreamConfig;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 合并模型流式输出中的小增量。
+ * <p>
+ * DashScope 的流式输出常常一次只有一两个字，每个增量在下游都是一个完整的 JSON 数据块、一个 SSE 事件和一次 flush。
+ * 这里在序列化之前按时间窗口（window-millis）或增量个数（max-deltas，先到者为准）把相邻增量合并成一个 ChatResponse：
+ * 内容按顺序拼接，消息元数据按顺序合并（同名键取靠后的）、工具调用按顺序拼接，结束原因取最后一个增量的，
+ * 响应元数据（usage 等）取最后一个响应的。
+ * 第一个有内容的增量及其之前的响应原样立即发送，首 token 延迟不受影响；流结束时窗口内剩余的增量立即发送。
+ *
+ * @author 忍
+ */
+@Component
+public class ChatResponseCoalescer {
+
+    private static final Predicate<ChatResponse> HAS_CONTENT = response -> {
+        Generation generation = response.getResult();
+        return generation != null && generation.getOutput() != null
+                && generation.getOutput().getText() != null && !generation.getOutput().getText().isEmpty();
+    };
+
+    private final ChatStreamConfig.Coalesce config;
+
+    public ChatResponseCoalescer(ChatStreamConfig chatStreamConfig) {
+        this.config = chatStreamConfig.getCoalesce();
+    }
+
+    public Flux<ChatResponse> coalesce(Flux<ChatResponse> responses) {
+        if (!config.isEnabled() || config.getMaxDeltas() <= 1) {
+            return responses;
+        }
+        Duration window = Duration.ofMillis(config.getWindowMillis());
+        return responses.publish(shared -> Flux.merge(
+                // 直到第一个有内容的增量（含）原样发送
+                shared.takeUntil(HAS_CONTENT),
+                // 之后的增量按窗口合并
+                shared.skipUntil(HAS_CONTENT).skip(1)
+                        // 公平背压：下游暂时没有需求时窗口到期也不报溢出，等有需求再发送
+                        .bufferTimeout(config.getMaxDeltas(), window, true)
+                        .map(ChatResponseCoalescer::merge)));
+    }
+
+    private static ChatResponse merge(List<ChatResponse> batch) {
+        if (batch.size() == 1) {
+            return batch.getFirst();
+        }
+        StringBuilder content = new StringBuilder();
+        Map<String, Object> properties = new HashMap<>();
+        List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>();
+        Generation lastGeneration = null;
+        for (ChatResponse response : batch) {
+            Generation generation = response.getResult();
+            if (generation == null) {
+                continue;
+            }
+            lastGeneration = generation;
+            AssistantMessage output = generation.getOutput();
+            if (output == null) {
+                continue;
+            }
+            if (output.getText() != null) {
+                content.append(output.getText());
+            }
+            properties.putAll(output.getMetadata());
+            if (output.getToolCalls() != null) {
+                toolCalls.addAll(output.getToolCalls());
+            }
+        }
+        AssistantMessage message = new AssistantMessage(content.toString(), properties, toolCalls);
+        Generation merged = lastGeneration != null && lastGeneration.getMetadata() != null
+                ? new Generation(message, lastGeneration.getMetadata())
+                : new Generation(message);
+        return new ChatResponse(List.of(merged), batch.getLast().getMetadata());
+    }
+}
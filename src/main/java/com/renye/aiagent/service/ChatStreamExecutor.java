@@ -0,0 +1,163 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.ChatStreamConfig;
+import com.renye.aiagent.dto.ChatStreamStats;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * /chat/completions 流式响应的执行器，/completions 和 /completions/reactive 共用同一组并发名额。
+ * <p>
+ * 每个流式响应的启动任务跑在一个虚拟线程上，任务只负责发送首个 SSE 事件并订阅模型输出，
+ * 之后的数据由 Reactor 的线程推送，不再占用任何专用线程，上千个并发面试也不需要上千个平台线程。
+ * 并发上限由信号量控制：名额从任务开始时占用，到流结束（正常完成、出错或客户端断开）时归还，
+ * 名额用完时请求在虚拟线程上排队等待，排队数或等待时间超过上限时拒绝。
+ * 响应式端点通过 {@link #limit} 使用同样的名额：订阅时取得，流结束或被取消时归还。
+ *
+ * @author 忍
+ */
+@Component
+public class ChatStreamExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatStreamExecutor.class);
+
+    private final ChatStreamConfig config;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // 响应式端点在同一批虚拟线程上等待名额
+    private final Scheduler scheduler = Schedulers.fromExecutorService(executor, "chat-stream");
+    private final Semaphore permits;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    public ChatStreamExecutor(ChatStreamConfig config) {
+        this.config = config;
+        this.permits = new Semaphore(Math.max(1, config.getMaxConcurrentStreams()), true);
+    }
+
+    /**
+     * 取得名额后在虚拟线程上启动一个流式响应
+     *
+     * @param stream     启动流式响应，参数为归还名额的回调，流结束时调用（可重复调用，只生效一次）
+     * @param onRejected 排队已满或等待超时时调用
+     */
+    public void execute(Consumer<Runnable> stream, Runnable onRejected) {
+        if (!enqueue()) {
+            onRejected.run();
+            return;
+        }
+        executor.execute(() -> {
+            Optional<Runnable> permit = awaitPermit();
+            if (permit.isEmpty()) {
+                onRejected.run();
+                return;
+            }
+            Runnable release = permit.get();
+            try {
+                stream.accept(release);
+            } catch (RuntimeException e) {
+                release.run();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * 响应式版本：订阅时在虚拟线程上排队取得名额，取得后才订阅 stream（其中阻塞的检索也在该虚拟线程上执行），
+     * stream 正常完成、出错或被取消（客户端断开）时归还名额
+     *
+     * @param stream     取得名额后订阅的流
+     * @param onRejected 排队已满或等待超时时改为返回的流
+     */
+    public <T> Flux<T> limit(Flux<T> stream, Supplier<Flux<T>> onRejected) {
+        return Flux.using(
+                        () -> enqueue() ? awaitPermit() : Optional.<Runnable>empty(),
+                        permit -> permit.isPresent() ? stream : onRejected.get(),
+                        permit -> permit.ifPresent(Runnable::run))
+                .subscribeOn(scheduler);
+    }
+
+    /**
+     * 占用一个排队位置，排队数已达上限时拒绝
+     */
+    private boolean enqueue() {
+        if (queued.incrementAndGet() > config.getMaxQueuedRequests()) {
+            queued.decrementAndGet();
+            reject("排队请求数已达上限 " + config.getMaxQueuedRequests());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 在当前（虚拟）线程上等待名额并释放排队位置，返回归还名额的回调（可重复调用，只生效一次），超时返回 empty
+     */
+    private Optional<Runnable> awaitPermit() {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(config.getQueueTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        } finally {
+            queued.decrementAndGet();
+        }
+        if (!acquired) {
+            reject("等待 " + config.getQueueTimeoutMillis() + "ms 仍无空闲名额");
+            return Optional.empty();
+        }
+        active.incrementAndGet();
+        started.incrementAndGet();
+        AtomicBoolean released = new AtomicBoolean(false);
+        return Optional.of(() -> {
+            if (released.compareAndSet(false, true)) {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+                permits.release();
+            }
+        });
+    }
+
+    private void reject(String reason) {
+        rejected.incrementAndGet();
+        log.warn("流式响应被拒绝: {}（进行中 {}，排队 {}）", reason, active.get(), queued.get());
+    }
+
+    /**
+     * 记录一次因客户端断开而取消的模型流式输出
+     */
+    public void recordCancelled() {
+        cancelled.incrementAndGet();
+    }
+
+    public ChatStreamStats stats() {
+        return new ChatStreamStats(active.get(), queued.get(), config.getMaxConcurrentStreams(),
+                started.get(), completed.get(), rejected.get(), cancelled.get());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,252 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.util.TextTokenizer;
+import com.renye.aiagent.util.TokenCounter;
+import com.renye.aiagent.vectorstore.TagIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 把检索到的文档块装进有 token 预算的"相关资料"上下文。
+ * <p>
+ * 按相关度顺序逐块装入：
+ * <ul>
+ *     <li>去重：相邻文档块之间有按整句保留的重叠，不同 PDF 之间也常有整段相同的内容，已经装入过的句子不再重复；
+ *     去重后剩余内容太少的块整块跳过</li>
+ *     <li>压缩：单块超过 max-passage-tokens 或剩余预算时，只保留与问题词项重叠最多的句子（保持原文顺序，省略处用"……"标出）</li>
+ *     <li>预算：总 token 数不超过当前对话模型的预算，剩余预算不足 min-passage-tokens 时停止</li>
+ * </ul>
+ * token 数按 {@link TokenCounter} 估算，只需要数量级正确。
+ *
+ * @author 忍
+ */
+@Component
+public class ContextPacker {
+
+    private static final Logger log = LoggerFactory.getLogger(ContextPacker.class);
+
+    private static final String PASSAGE_SEPARATOR = "\n---\n";
+    private static final String ELLIPSIS = "……";
+    private static final String SENTENCE_END = "。！？；!?;\n";
+    // 与问题重叠多的句子优先，重叠相同时靠前的优先
+    private static final Comparator<Sentence> BY_RELEVANCE =
+            Comparator.comparingInt(Sentence::overlap).reversed().thenComparingInt(Sentence::position);
+
+    private final RagConfig.Context config;
+    private final int budgetTokens;
+
+    public ContextPacker(RagConfig ragConfig,
+                         @Value("${spring.ai.dashscope.chat.options.model:qwen-turbo}") String chatModelName) {
+        this.config = ragConfig.getContext();
+        this.budgetTokens = config.getModelBudgetTokens().getOrDefault(chatModelName, config.getDefaultBudgetTokens());
+        log.info("RAG上下文预算: 对话模型 {}，{} tokens", chatModelName, budgetTokens);
+    }
+
+    /**
+     * 按相关度顺序装入文档块，返回实际装入的文档块id和渲染好的上下文
+     *
+     * @param query     用户问题，用于压缩时挑选句子
+     * @param documents 按相关度从高到低排序的文档块
+     */
+    public RetrievedContext pack(String query, List<Document> documents) {
+        if (!config.isEnabled()) {
+            List<String> ids = new ArrayList<>(documents.size());
+            List<String> passages = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                ids.add(document.getId());
+                passages.add(header(document) + document.getContent() + "\"");
+            }
+            return new RetrievedContext(ids, String.join(PASSAGE_SEPARATOR, passages));
+        }
+
+        Set<String> queryTerms = new HashSet<>(TextTokenizer.tokenize(query));
+        Set<String> seenSentences = new HashSet<>();
+        List<String> ids = new ArrayList<>();
+        StringBuilder context = new StringBuilder();
+        int usedTokens = 0;
+        int separatorTokens = TokenCounter.estimate(PASSAGE_SEPARATOR);
+        int skipped = 0;
+        int compressed = 0;
+        for (Document document : documents) {
+            String header = header(document);
+            int overhead = TokenCounter.estimate(header) + 1 + (ids.isEmpty() ? 0 : separatorTokens);
+            int available = Math.min(config.getMaxPassageTokens(), budgetTokens - usedTokens - overhead);
+            if (available < config.getMinPassageTokens()) {
+                break;
+            }
+
+            List<Sentence> fresh = new ArrayList<>();
+            int freshTokens = 0;
+            for (String text : splitSentences(document.getContent())) {
+                String key = dedupeKey(text);
+                if (!key.isEmpty() && !seenSentences.contains(key)) {
+                    Sentence sentence = new Sentence(fresh.size(), text, TokenCounter.estimate(text),
+                            overlap(text, queryTerms));
+                    fresh.add(sentence);
+                    freshTokens += sentence.tokens();
+                }
+            }
+            if (freshTokens < config.getMinPassageTokens()) {
+                skipped++;
+                continue;
+            }
+
+            List<Sentence> kept = fresh;
+            if (freshTokens > available) {
+                kept = compress(fresh, available);
+                compressed++;
+            }
+            String body = kept.isEmpty()
+                    ? truncate(mostRelevant(fresh).text(), available) + ELLIPSIS
+                    : render(kept, fresh.size());
+            for (Sentence sentence : kept) {
+                seenSentences.add(dedupeKey(sentence.text()));
+            }
+            if (!ids.isEmpty()) {
+                context.append(PASSAGE_SEPARATOR);
+            }
+            context.append(header).append(body).append('"');
+            usedTokens += overhead + TokenCounter.estimate(body);
+            ids.add(document.getId());
+        }
+        log.info("RAG上下文装箱: 候选 {} 块，装入 {} 块（压缩 {}，去重跳过 {}），约 {}/{} tokens",
+                documents.size(), ids.size(), compressed, skipped, usedTokens, budgetTokens);
+        return new RetrievedContext(ids, context.toString());
+    }
+
+    /**
+     * 去重后留下的句子：在块内的序号、token 数和与问题的词项重叠数
+     */
+    private record Sentence(int position, String text, int tokens, int overlap) {
+    }
+
+    /**
+     * 在 token 上限内优先保留与问题重叠最多的句子（重叠相同时靠前的优先），按原文顺序返回；一句都放不下时返回空列表
+     */
+    private static List<Sentence> compress(List<Sentence> sentences, int maxTokens) {
+        List<Sentence> ranked = new ArrayList<>(sentences);
+        ranked.sort(BY_RELEVANCE);
+        List<Sentence> kept = new ArrayList<>();
+        int tokens = 0;
+        for (Sentence sentence : ranked) {
+            if (tokens + sentence.tokens() <= maxTokens) {
+                kept.add(sentence);
+                tokens += sentence.tokens();
+            }
+        }
+        kept.sort(Comparator.comparingInt(Sentence::position));
+        return kept;
+    }
+
+    private static Sentence mostRelevant(List<Sentence> sentences) {
+        return sentences.stream().min(BY_RELEVANCE).orElseThrow();
+    }
+
+    /**
+     * 按原文顺序拼接保留的句子，被省略的位置用省略号标出
+     */
+    private static String render(List<Sentence> kept, int total) {
+        StringBuilder body = new StringBuilder();
+        int next = 0;
+        for (Sentence sentence : kept) {
+            if (sentence.position() > next) {
+                body.append(ELLIPSIS);
+            }
+            body.append(sentence.text());
+            next = sentence.position() + 1;
+        }
+        if (next < total) {
+            body.append(ELLIPSIS);
+        }
+        return body.toString();
+    }
+
+    /**
+     * 截取不超过 maxTokens 的前缀（没有标点的长段落一句都放不下时使用），计数规则与 {@link TokenCounter#estimate} 一致
+     */
+    private static String truncate(String text, int maxTokens) {
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (TokenCounter.isCjk(c)) {
+                cjk++;
+            } else if (!Character.isWhitespace(c)) {
+                other++;
+            }
+            if (cjk + (other + 3) / 4 > maxTokens) {
+                return text.substring(0, i);
+            }
+        }
+        return text;
+    }
+
+    private static int overlap(String sentence, Set<String> queryTerms) {
+        if (queryTerms.isEmpty()) {
+            return 0;
+        }
+        int overlap = 0;
+        for (String token : new HashSet<>(TextTokenizer.tokenize(sentence))) {
+            if (queryTerms.contains(token)) {
+                overlap++;
+            }
+        }
+        return overlap;
+    }
+
+    /**
+     * 按句末标点和换行切句，标点留在句尾
+     */
+    static List<String> splitSentences(String text) {
+        List<String> sentences = new ArrayList<>();
+        if (text == null) {
+            return sentences;
+        }
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (SENTENCE_END.indexOf(text.charAt(i)) >= 0) {
+                sentences.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            sentences.add(text.substring(start));
+        }
+        return sentences;
+    }
+
+    /**
+     * 去掉空白后比较，PDF 抽取时换行、空格位置不同的同一句话视为重复
+     */
+    private static String dedupeKey(String sentence) {
+        StringBuilder key = new StringBuilder(sentence.length());
+        for (int i = 0; i < sentence.length(); i++) {
+            char c = sentence.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+    private static String header(Document document) {
+        // 尝试从元数据获取更友好的来源名称
+        String sourceName = "知识库参考";
+        if (document.getMetadata().containsKey("sourceFile")) {
+            sourceName = document.getMetadata().get("sourceFile").toString();
+        } else if (document.getMetadata().containsKey(TagIndex.TAG_METADATA_KEY)) {
+            sourceName = "关于 " + document.getMetadata().get(TagIndex.TAG_METADATA_KEY).toString() + " 的资料";
+        }
+        return "相关资料 (" + sourceName + "):\n\"";
+    }
+}
@@ -1,24 +1,46 @@
 package com.renye.aiagent.service;
 
+import com.renye.aiagent.config.KnowledgeBaseConfig;
+import com.renye.aiagent.vectorstore.Bm25Index;
+import com.renye.aiagent.vectorstore.EmbeddingCache;
+import com.renye.aiagent.vectorstore.HnswVectorStore;
+import com.renye.aiagent.vectorstore.KnowledgeVectorStore;
+import com.renye.aiagent.vectorstore.ShardedVectorStore;
+import com.renye.aiagent.vectorstore.TagIndex;
+import com.renye.aiagent.vectorstore.VectorSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
 
 import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter; // 用于分块
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Service;
-import jakarta.annotation.PostConstruct; // 用于应用启动时加载
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,7 +49,8 @@ public class DocumentLoadingService {
     private static final Logger log = LoggerFactory.getLogger(DocumentLoadingService.class);
     // 注入您的VectorStore
     private final VectorStore vectorStore;
-    // private final EmbeddingModel embeddingModel; // TokenTextSplitter 可能需要 EmbeddingModel 来估算 token
+    // 用于 KnowledgeVectorStore 的入库 embedding（经 EmbeddingBatcher 分批，配合 embedding 缓存只计算新增或变化的文档块）
+    private final EmbeddingModel embeddingModel;
 
     @Value("classpath:knowledgebase/pdfs/**/*.pdf") // Spring 资源表达式，匹配所有子目录下的PDF
     private Resource[] pdfResources;
@@ -37,88 +60,324 @@ public class DocumentLoadingService {
     // 这里我们先简单加载，并在VectorStore中用metadata区分来源
     private final Map<String, List<Document>> knowledgeBases = new HashMap<>();
 
-    public DocumentLoadingService(VectorStore vectorStore) {
+    private final KnowledgeBaseConfig knowledgeBaseConfig;
+
+    // 快照与当前 embedding 模型绑定，换模型后旧向量不可复用
+    @Value("${spring.ai.dashscope.embedding.options.model:text-embedding-v2}")
+    private String embeddingModelName;
+
+    // 预热进度，RagService 据此在预热期间降级
+    private final KnowledgeBaseProgress progress;
+
+    // 索引变化时通知检索结果缓存失效
+    private final ApplicationEventPublisher eventPublisher;
+
+    // 与 VectorStore 同步写入的 BM25 词法索引
+    private final Bm25Index bm25Index;
+
+    public DocumentLoadingService(VectorStore vectorStore, EmbeddingModel embeddingModel, KnowledgeBaseConfig knowledgeBaseConfig,
+                                  KnowledgeBaseProgress progress, ApplicationEventPublisher eventPublisher, Bm25Index bm25Index) {
         this.vectorStore = vectorStore;
+        this.bm25Index = bm25Index;
+        this.embeddingModel = embeddingModel;
+        this.knowledgeBaseConfig = knowledgeBaseConfig;
+        this.progress = progress;
+        this.eventPublisher = eventPublisher;
     }
 
+    /**
+     * 应用就绪（HTTP端口已打开）后在后台线程预热知识库，不阻塞 Spring 容器启动。
+     * 预热期间 RagService 使用已写入的部分索引或不使用RAG，进度见 /knowledge-base/status。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpInBackground() {
+        Thread.ofPlatform().name("kb-warmup").daemon(true).start(() -> {
+            try {
+                loadDocuments();
+            } catch (Exception e) {
+                log.error("知识库后台预热失败: {}", e.getMessage(), e);
+                progress.failed(e.getMessage());
+            }
+        });
+    }
 
-    @PostConstruct // 应用启动后执行
     public void loadDocuments() {
         log.info("开始加载PDF知识库文档...");
         if (pdfResources == null || pdfResources.length == 0) {
             log.warn("在 classpath:knowledgebase/pdfs/ 下没有找到PDF文件。");
+            progress.start(0);
+            progress.ready();
             return;
         }
+        progress.start(pdfResources.length);
+
+        // 按 token 预算分块，避免整页作为一个检索单元导致 prompt 过长
+        KnowledgeBaseConfig.Chunking chunking = knowledgeBaseConfig.getChunking();
+        KnowledgeChunker chunker = chunking.isEnabled()
+                ? new KnowledgeChunker(chunking.getMaxTokens(), chunking.getMinTokens(), chunking.getOverlapTokens())
+                : null;
 
-        TokenTextSplitter textSplitter = new TokenTextSplitter(
-            // 默认的分块大小和重叠，您可以根据需要调整
-            // 1000, // maxTokensPerChunk
-            // 200,  // minTokensPerChunk
-            // 20,   // overlapTokens
-            // true, // keepSeparator
-            // embeddingModel // 传入embeddingModel用于精确的token计数 (如果需要)
-        );
+        // 向量快照和 embedding 缓存只对支持直接写入向量的 KnowledgeVectorStore 生效
+        KnowledgeVectorStore knowledgeVectorStore = vectorStore instanceof KnowledgeVectorStore kvs ? kvs : null;
+        if (knowledgeVectorStore == null) {
+            log.info("当前VectorStore ({}) 不支持写入预计算向量，向量快照和embedding缓存不生效。", vectorStore.getClass().getSimpleName());
+        }
+        boolean snapshotEnabled = knowledgeVectorStore != null && knowledgeBaseConfig.getSnapshot().isEnabled();
+        VectorSnapshot snapshot = snapshotEnabled ? readSnapshot() : null;
+        Map<String, String> currentFileHashes = new LinkedHashMap<>();
+        boolean corpusChanged = snapshot == null;
 
+        // 1. 内容未变化的文件直接从快照恢复，其余文件进入入库流水线
+        List<Resource> pendingResources = new ArrayList<>();
         for (Resource pdfResource : pdfResources) {
             String filename = pdfResource.getFilename();
+            if (snapshotEnabled) {
+                String contentHash = contentHash(pdfResource);
+                if (contentHash == null) {
+                    // 哈希失败时不记录到快照中，下次启动会重新处理该文件
+                    corpusChanged = true;
+                } else {
+                    currentFileHashes.put(filename, contentHash);
+                    if (snapshot != null && contentHash.equals(snapshot.getFileHashes().get(filename))) {
+                        List<VectorSnapshot.Entry> entries = snapshot.entriesOf(filename);
+                        List<Document> restored = entries.stream().map(VectorSnapshot.Entry::document).toList();
+                        knowledgeVectorStore.addEmbedded(restored, entries.stream().map(VectorSnapshot.Entry::vector).toList());
+                        fileIndexed(filename, restored);
+                        log.info("文件 {} 内容未变化，已从快照恢复 {} 个文档块，跳过embedding。", filename, entries.size());
+                        continue;
+                    }
+                    corpusChanged = true;
+                }
+            }
+            pendingResources.add(pdfResource);
+        }
 
-            log.info("正在处理文件: {}", filename);
+        // 2. 解析 -> 分块/元数据 -> embedding -> 写入索引，各阶段并行
+        if (!pendingResources.isEmpty()) {
+            KnowledgeBaseConfig.Ingest ingest = knowledgeBaseConfig.getIngest();
+            IngestPipeline pipeline = new IngestPipeline(ingest.getParseWorkers(), ingest.getChunkWorkers(),
+                    ingest.getEmbedWorkers(), ingest.getQueueCapacity());
+            EmbeddingCache embeddingCache = knowledgeVectorStore != null ? openEmbeddingCache() : null;
+            KnowledgeBaseConfig.EmbeddingBatch batch = knowledgeBaseConfig.getEmbeddingBatch();
+            EmbeddingBatcher embeddingBatcher = new EmbeddingBatcher(embeddingModel, batch.getMaxBatchSize(),
+                    batch.getMaxBatchTokens(), batch.getMaxInFlight(), batch.getMaxRetries(), batch.getInitialBackoffMillis());
             try {
-                // 使用 PagePdfDocumentReader，它会为PDF的每一页创建一个Document对象
-                // 这样可以保留页码等元数据，并且初始的Document粒度较小
-                PagePdfDocumentReader pdfReader = new PagePdfDocumentReader(pdfResource);
-                // 获取原始的、按页分的文档
-                List<Document> rawDocuments = pdfReader.get();
-
-                List<Document> processedDocuments = new ArrayList<>();
-                for (Document rawDoc : rawDocuments) {
-                    // 为每个文档添加来源文件名作为元数据
-                    rawDoc.getMetadata().put("sourceFile", filename);
-                    // 可以添加从文件名提取的tag作为元数据
-                    extractTagsFromFilename(filename).forEach(tag -> {
-                        // 将标签添加到元数据中，例如 "tags" : ["java", "基础"]
-                        // 注意：VectorStore对元数据中List<String>的支持取决于具体实现
-                        // 有些可能只支持简单的String或数字。如果不支持List，可以考虑将tags合并为逗号分隔的字符串。
-                        // 或者为每个tag创建一个单独的元数据字段，但这可能不灵活。
-                        // 最好的方式是，如果VectorStore支持，就用List<String>。
-                        // 假设我们用一个逗号分隔的字符串
-                        String existingTags = (String) rawDoc.getMetadata().getOrDefault("doc_tags", "");
-                        if (!existingTags.isEmpty()) {
-                            existingTags += ",";
-                        }
-                        existingTags += tag;
-                        rawDoc.getMetadata().put("doc_tags", existingTags);
-                    });
-                    processedDocuments.add(rawDoc);
+                IngestPipeline.Result result = pipeline.run(pendingResources,
+                        pdfResource -> {
+                            log.info("正在处理文件: {}", pdfResource.getFilename());
+                            // 使用 PagePdfDocumentReader，它会为PDF的每一页创建一个Document对象
+                            // 这样可以保留页码等元数据，并且初始的Document粒度较小
+                            List<Document> pages = new PagePdfDocumentReader(pdfResource).get();
+                            progress.pagesParsed(pages.size());
+                            return pages;
+                        },
+                        (filename, pages) -> {
+                            List<Document> enriched = enrichMetadata(filename, pages);
+                            return chunker != null ? chunker.split(enriched) : enriched;
+                        },
+                        (filename, chunks) -> knowledgeVectorStore != null ? embedWithCache(chunks, embeddingCache, embeddingBatcher) : null,
+                        (filename, chunks, embeddings) -> {
+                            if (chunks.isEmpty()) {
+                                log.warn("文件 {} 没有解析出任何文本（可能是扫描版PDF），跳过写入索引。", filename);
+                                progress.fileIndexed(0);
+                                return;
+                            }
+                            if (embeddings != null) {
+                                knowledgeVectorStore.addEmbedded(chunks, embeddings);
+                            } else {
+                                // 不支持预计算向量的 VectorStore 由其自身完成 embedding
+                                vectorStore.add(chunks);
+                            }
+                            fileIndexed(filename, chunks);
+                            log.info("已将来自 {} 的 {} 页文档（或文档块）添加到VectorStore。", filename, chunks.size());
+                        });
+                // 处理失败的文件不写入快照，下次启动重试
+                result.failedFiles().forEach(currentFileHashes::remove);
+                progress.filesFailed(result.failedFiles().size());
+                log.info("入库流水线完成: {} 个文件，{} 个文档块，失败 {} 个文件，耗时 {} ms",
+                        result.files(), result.documents(), result.failedFiles().size(), result.elapsedMillis());
+                if (embeddingBatcher.getEmbeddedChunks() > 0) {
+                    log.info("embedding吞吐: {} 个文档块，{} 次请求（重试 {} 次），{} 块/秒",
+                            embeddingBatcher.getEmbeddedChunks(), embeddingBatcher.getRequests(),
+                            embeddingBatcher.getRetries(), String.format("%.1f", embeddingBatcher.chunksPerSecond()));
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("知识库入库被中断，本次不写入向量快照。");
+                progress.failed("入库被中断");
+                return;
+            } finally {
+                embeddingBatcher.close();
+                closeEmbeddingCache(embeddingCache);
+            }
+        }
 
+        if (snapshotEnabled) {
+            // 快照中有但本次已删除的文件也算变化
+            if (snapshot != null && !snapshot.getFileHashes().keySet().equals(currentFileHashes.keySet())) {
+                corpusChanged = true;
+            }
+            if (corpusChanged) {
+                writeSnapshot(knowledgeVectorStore, currentFileHashes);
+            }
+        }
+        progress.ready();
+        log.info("PDF知识库文档加载完成。BM25索引: {} 个文档块，{} 个词项，倒排表 {} KB",
+                bm25Index.size(), bm25Index.termCount(), bm25Index.postingsBytes() / 1024);
+        if (vectorStore instanceof HnswVectorStore hnswVectorStore) {
+            log.info("向量存储占用: {}", hnswVectorStore.memoryUsage());
+        } else if (vectorStore instanceof ShardedVectorStore shardedVectorStore) {
+            log.info("向量存储占用: {}", shardedVectorStore.memoryUsage());
+        }
+    }
 
-                // 对从PDF读取的（可能很大的）文档内容进行分块
-                // List<Document> splitDocuments = textSplitter.apply(processedDocuments);
-                // log.info("文件 {} 被分割为 {} 个文档块", filename, splitDocuments.size());
+    /**
+     * 一个文件的文档块已写入 VectorStore：同步写入 BM25 索引，更新预热进度并发布索引变化事件
+     */
+    private void fileIndexed(String filename, List<Document> chunks) {
+        bm25Index.add(chunks);
+        progress.fileIndexed(chunks.size());
+        eventPublisher.publishEvent(new KnowledgeBaseChangedEvent(filename, chunks.size()));
+    }
 
-                // 注意：如果PagePdfDocumentReader已经将每页作为一个Document，
-                // 并且每页的内容不是特别长，可以考虑是否还需要进一步用TokenTextSplitter分块。
-                // 如果每页内容可能超过LLM上下文或embedding模型的限制，则需要分块。
-                // 假设我们直接使用按页分割的文档，或者您已经配置好了分块逻辑：
-                // vectorStore.add(splitDocuments);
+    /**
+     * 为按页解析出的文档补充来源文件名和标签元数据
+     */
+    private List<Document> enrichMetadata(String filename, List<Document> rawDocuments) {
+        List<String> tags = extractTagsFromFilename(filename);
+        List<Document> processedDocuments = new ArrayList<>(rawDocuments.size());
+        for (Document rawDoc : rawDocuments) {
+            // 为每个文档添加来源文件名作为元数据
+            rawDoc.getMetadata().put(KnowledgeChunker.SOURCE_METADATA_KEY, filename);
+            // 标签合并为逗号分隔的字符串，VectorStore 对元数据中 List<String> 的支持取决于具体实现
+            if (!tags.isEmpty()) {
+                rawDoc.getMetadata().put(TagIndex.TAG_METADATA_KEY, String.join(",", tags));
+            }
+            processedDocuments.add(rawDoc);
+        }
+        return processedDocuments;
+    }
 
-                // 简化：直接添加按页分割的文档到VectorStore。
-                // 如果文档内容过长，请务必使用TokenTextSplitter。
-                if (!processedDocuments.isEmpty()) {
-                    vectorStore.add(processedDocuments);
-                    log.info("已将来自 {} 的 {} 页文档（或文档块）添加到VectorStore。", filename, processedDocuments.size());
+    /**
+     * 先查 embedding 缓存，只对未命中的文档块调用 EmbeddingModel，返回与 documents 一一对应的向量
+     */
+    private List<float[]> embedWithCache(List<Document> documents, EmbeddingCache embeddingCache,
+                                         EmbeddingBatcher embeddingBatcher) throws InterruptedException {
+        List<float[]> embeddings = new ArrayList<>(Collections.nCopies(documents.size(), null));
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < documents.size(); i++) {
+            float[] cached = embeddingCache != null ? embeddingCache.get(embeddingModelName, documents.get(i).getContent()) : null;
+            if (cached != null) {
+                embeddings.set(i, cached);
+            } else {
+                missing.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<String> texts = missing.stream().map(i -> documents.get(i).getContent()).toList();
+            List<float[]> computed = embeddingBatcher.embed(texts);
+            for (int j = 0; j < missing.size(); j++) {
+                embeddings.set(missing.get(j), computed.get(j));
+                if (embeddingCache != null) {
+                    try {
+                        embeddingCache.put(embeddingModelName, texts.get(j), computed.get(j));
+                    } catch (IOException e) {
+                        log.warn("写入embedding缓存失败: {}", e.getMessage());
+                    }
                 }
+            }
+        }
+        log.debug("embedding缓存命中 {} 个，新计算 {} 个文档块。", documents.size() - missing.size(), missing.size());
+        return embeddings;
+    }
 
-                // (可选) 如果您仍想按文件名/知识库标识符在内存中组织一份引用，可以这样做：
-                // String kbIdentifier = extractKbIdentifierFromFile(filename);
-                // knowledgeBases.computeIfAbsent(kbIdentifier, k -> new ArrayList<>()).addAll(splitDocuments);
+    private EmbeddingCache openEmbeddingCache() {
+        if (!knowledgeBaseConfig.getEmbeddingCache().isEnabled()) {
+            return null;
+        }
+        Path path = Paths.get(knowledgeBaseConfig.getEmbeddingCache().getPath());
+        try {
+            return new EmbeddingCache(path);
+        } catch (IOException e) {
+            log.warn("打开embedding缓存 {} 失败，本次入库不使用缓存: {}", path, e.getMessage());
+            return null;
+        }
+    }
 
-            } catch (Exception e) {
-                log.error("处理PDF文件 {} 时出错: {}", filename, e.getMessage(), e);
+    private void closeEmbeddingCache(EmbeddingCache embeddingCache) {
+        if (embeddingCache == null) {
+            return;
+        }
+        log.info("embedding缓存统计: 命中 {}，未命中 {}，共 {} 条记录。",
+                embeddingCache.getHits(), embeddingCache.getMisses(), embeddingCache.size());
+        try {
+            embeddingCache.close();
+        } catch (IOException e) {
+            log.warn("关闭embedding缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private VectorSnapshot readSnapshot() {
+        Path path = Paths.get(knowledgeBaseConfig.getSnapshot().getPath());
+        if (!Files.exists(path)) {
+            log.info("未找到知识库向量快照 {}，将全量处理PDF。", path.toAbsolutePath());
+            return null;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            VectorSnapshot snapshot = VectorSnapshot.read(path);
+            if (!Objects.equals(snapshot.getEmbeddingModel(), embeddingModelName)) {
+                log.info("知识库向量快照的embedding模型({})与当前模型({})不一致，忽略快照。",
+                        snapshot.getEmbeddingModel(), embeddingModelName);
+                return null;
+            }
+            if (!Objects.equals(snapshot.getChunkingSignature(), chunkingSignature())) {
+                log.info("知识库向量快照的分块参数({})与当前配置({})不一致，忽略快照。",
+                        snapshot.getChunkingSignature(), chunkingSignature());
+                return null;
+            }
+            log.info("已加载知识库向量快照 {}: {} 个文件，耗时 {} ms", path, snapshot.getFileHashes().size(),
+                    System.currentTimeMillis() - start);
+            return snapshot;
+        } catch (IOException e) {
+            log.warn("读取知识库向量快照 {} 失败，将全量处理PDF: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeSnapshot(KnowledgeVectorStore knowledgeVectorStore, Map<String, String> fileHashes) {
+        Path path = Paths.get(knowledgeBaseConfig.getSnapshot().getPath());
+        try {
+            long start = System.currentTimeMillis();
+            VectorSnapshot.write(path, embeddingModelName, chunkingSignature(), fileHashes, knowledgeVectorStore, "sourceFile");
+            log.info("知识库向量快照已写入 {}: {} 个文档块，耗时 {} ms", path.toAbsolutePath(),
+                    knowledgeVectorStore.size(), System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.error("写入知识库向量快照 {} 失败: {}", path, e.getMessage(), e);
+        }
+    }
+
+    // 分块参数变化后快照中的文档块不再有效
+    private String chunkingSignature() {
+        KnowledgeBaseConfig.Chunking chunking = knowledgeBaseConfig.getChunking();
+        if (!chunking.isEnabled()) {
+            return "page";
+        }
+        return "chunk:" + chunking.getMaxTokens() + "/" + chunking.getMinTokens() + "/" + chunking.getOverlapTokens();
+    }
+
+    // PDF内容的SHA-256，用于判断文件是否变化
+    private String contentHash(Resource resource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(resource.getInputStream(), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
             }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warn("计算文件 {} 的内容哈希失败: {}", resource.getFilename(), e.getMessage());
+            return null;
         }
-        log.info("PDF知识库文档加载完成。");
     }
 
     // 从文件名中提取标签的简单示例逻辑
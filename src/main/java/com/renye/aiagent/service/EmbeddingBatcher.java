@@ -0,0 +1,171 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.util.TokenCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 入库时位于 EmbeddingModel 之前的分批器。
+ * <p>
+ * 按条数和估算 token 数把文本打包成批次（DashScope text-embedding-v2 单次最多 25 条），
+ * 全局最多 maxInFlight 个批次同时请求，失败的批次按指数退避重试。
+ * 同一个实例可被多个入库线程共享，并发上限对所有调用方整体生效。
+ *
+ * @author 忍
+ */
+public class EmbeddingBatcher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingBatcher.class);
+
+    private final EmbeddingModel embeddingModel;
+    private final int maxBatchSize;
+    private final int maxBatchTokens;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final Semaphore inFlight;
+    // 批次请求是纯网络等待，用虚拟线程承载
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicLong embeddedChunks = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong firstRequestNanos = new AtomicLong();
+    private final AtomicLong lastCompletionNanos = new AtomicLong();
+
+    public EmbeddingBatcher(EmbeddingModel embeddingModel, int maxBatchSize, int maxBatchTokens, int maxInFlight,
+                            int maxRetries, long initialBackoffMillis) {
+        this.embeddingModel = embeddingModel;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchTokens = Math.max(1, maxBatchTokens);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.initialBackoffMillis = Math.max(0, initialBackoffMillis);
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+    }
+
+    /**
+     * 对文本列表做 embedding，返回与输入一一对应的向量。任一批次在重试耗尽后仍失败则抛出异常。
+     */
+    public List<float[]> embed(List<String> texts) throws InterruptedException {
+        if (texts.isEmpty()) {
+            return List.of();
+        }
+        List<List<String>> batches = pack(texts);
+        List<Future<List<float[]>>> futures = new ArrayList<>(batches.size());
+        for (List<String> batch : batches) {
+            futures.add(executor.submit(() -> embedBatch(batch)));
+        }
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        try {
+            for (Future<List<float[]>> future : futures) {
+                embeddings.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("embedding批次请求失败: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return embeddings;
+    }
+
+    /**
+     * 按条数上限和 token 预算顺序装箱。单条超出 token 预算的文本单独成批。
+     */
+    List<List<String>> pack(List<String> texts) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (String text : texts) {
+            int tokens = TokenCounter.estimate(text);
+            if (!current.isEmpty() && (current.size() >= maxBatchSize || currentTokens + tokens > maxBatchTokens)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(text);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    private List<float[]> embedBatch(List<String> batch) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            firstRequestNanos.compareAndSet(0, System.nanoTime());
+            long backoff = initialBackoffMillis;
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    requests.incrementAndGet();
+                    List<float[]> result = embeddingModel.embed(batch);
+                    if (result.size() != batch.size()) {
+                        throw new IllegalStateException("EmbeddingModel 返回的向量数量(" + result.size()
+                                + ")与请求数量(" + batch.size() + ")不一致");
+                    }
+                    embeddedChunks.addAndGet(batch.size());
+                    lastCompletionNanos.set(System.nanoTime());
+                    return result;
+                } catch (RuntimeException e) {
+                    if (attempt >= maxRetries) {
+                        throw e;
+                    }
+                    retries.incrementAndGet();
+                    // 加入随机抖动，避免多个批次同时重试再次触发限流
+                    long sleep = backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                    log.warn("embedding批次({}条)第 {} 次请求失败，{} ms后重试: {}", batch.size(), attempt + 1, sleep, e.getMessage());
+                    Thread.sleep(sleep);
+                    backoff *= 2;
+                }
+            }
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * 从第一个批次开始请求到最后一个批次完成期间的平均吞吐（文档块/秒）
+     */
+    public double chunksPerSecond() {
+        long first = firstRequestNanos.get();
+        long last = lastCompletionNanos.get();
+        if (first == 0 || last <= first) {
+            return 0;
+        }
+        return embeddedChunks.get() * 1_000_000_000.0 / (last - first);
+    }
+
+    public long getEmbeddedChunks() {
+        return embeddedChunks.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,188 @@
+package com.renye.aiagent.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.Resource;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 知识库入库流水线：解析 -> 分块/元数据 -> embedding -> 写入索引。
+ * <p>
+ * 前三个阶段各有独立的线程池，阶段之间用有界队列连接，下游处理不过来时上游自然阻塞，
+ * 不会把整个知识库的解析结果堆在内存里。写入索引阶段在调用线程上单线程执行（HNSW 插入是单写者）。
+ * 某个文件在任一阶段失败只会跳过该文件，记录在 {@link Result#failedFiles()} 中。
+ *
+ * @author 忍
+ */
+public class IngestPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestPipeline.class);
+
+    @FunctionalInterface
+    public interface Parser {
+        List<Document> parse(Resource resource) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Chunker {
+        List<Document> chunk(String filename, List<Document> pages) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Embedder {
+        /**
+         * @return 与 chunks 一一对应的向量；返回 null 表示交给索引阶段自行 embedding
+         */
+        List<float[]> embed(String filename, List<Document> chunks) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Indexer {
+        /**
+         * @param chunks 可能为空（文件没有解析出任何文本，如扫描版PDF），此时 embeddings 也为空，文件仍算作已处理
+         */
+        void index(String filename, List<Document> chunks, List<float[]> embeddings) throws Exception;
+    }
+
+    public record Result(Set<String> failedFiles, int files, int documents, long elapsedMillis) {
+    }
+
+    // 在各阶段之间流转的工作单元，每个单元对应一个PDF文件
+    private record Work(String filename, Resource resource, List<Document> documents, List<float[]> embeddings) {
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        Work apply(Work work) throws Exception;
+    }
+
+    // 结束标记
+    private static final Work END = new Work(null, null, null, null);
+
+    private final int parseWorkers;
+    private final int chunkWorkers;
+    private final int embedWorkers;
+    private final int queueCapacity;
+
+    public IngestPipeline(int parseWorkers, int chunkWorkers, int embedWorkers, int queueCapacity) {
+        this.parseWorkers = Math.max(1, parseWorkers);
+        this.chunkWorkers = Math.max(1, chunkWorkers);
+        this.embedWorkers = Math.max(1, embedWorkers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    public Result run(List<Resource> resources, Parser parser, Chunker chunker, Embedder embedder, Indexer indexer)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        Set<String> failedFiles = ConcurrentHashMap.newKeySet();
+
+        BlockingQueue<Work> parseQueue = new LinkedBlockingQueue<>();
+        for (Resource resource : resources) {
+            parseQueue.add(new Work(resource.getFilename(), resource, null, null));
+        }
+        parseQueue.add(END);
+        BlockingQueue<Work> chunkQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Work> embedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Work> indexQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        ExecutorService parsePool = Executors.newFixedThreadPool(parseWorkers, namedThreads("kb-parse"));
+        ExecutorService chunkPool = Executors.newFixedThreadPool(chunkWorkers, namedThreads("kb-chunk"));
+        ExecutorService embedPool = Executors.newFixedThreadPool(embedWorkers, namedThreads("kb-embed"));
+        try {
+            startStage("解析", parsePool, parseWorkers, parseQueue, chunkQueue, failedFiles,
+                    work -> new Work(work.filename(), null, parser.parse(work.resource()), null));
+            startStage("分块", chunkPool, chunkWorkers, chunkQueue, embedQueue, failedFiles,
+                    work -> new Work(work.filename(), null, chunker.chunk(work.filename(), work.documents()), null));
+            // 没有文档块的文件不调用 embedding，但仍交给索引阶段，保证每个文件都被计入进度
+            startStage("embedding", embedPool, embedWorkers, embedQueue, indexQueue, failedFiles,
+                    work -> new Work(work.filename(), null, work.documents(), work.documents().isEmpty()
+                            ? List.of() : embedder.embed(work.filename(), work.documents())));
+
+            int files = 0;
+            int documents = 0;
+            while (true) {
+                Work work = indexQueue.take();
+                if (work == END) {
+                    break;
+                }
+                try {
+                    indexer.index(work.filename(), work.documents(), work.embeddings());
+                    files++;
+                    documents += work.documents().size();
+                } catch (Exception e) {
+                    log.error("入库流水线[写入索引]阶段处理文件 {} 失败: {}", work.filename(), e.getMessage(), e);
+                    failedFiles.add(work.filename());
+                }
+            }
+            return new Result(failedFiles, files, documents, System.currentTimeMillis() - start);
+        } finally {
+            parsePool.shutdownNow();
+            chunkPool.shutdownNow();
+            embedPool.shutdownNow();
+        }
+    }
+
+    /**
+     * 启动一个阶段的 worker。每个 worker 读到结束标记后放回输入队列让同阶段其他 worker 也能退出，
+     * 最后一个退出的 worker 向下游发送结束标记。
+     */
+    private void startStage(String stageName, ExecutorService pool, int workers, BlockingQueue<Work> in,
+                            BlockingQueue<Work> out, Set<String> failedFiles, Step step) {
+        AtomicInteger running = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            pool.execute(() -> {
+                try {
+                    while (true) {
+                        Work work = in.take();
+                        if (work == END) {
+                            in.put(END);
+                            break;
+                        }
+                        try {
+                            Work next = step.apply(work);
+                            if (next != null) {
+                                out.put(next);
+                            }
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            log.error("入库流水线[{}]阶段处理文件 {} 失败: {}", stageName, work.filename(), e.getMessage(), e);
+                            failedFiles.add(work.filename());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        try {
+                            out.put(END);
+                        } catch (InterruptedException e) {
+                            // 只有 run() 结束后 shutdownNow 才会中断，此时下游已不再消费
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,11 @@
+package com.renye.aiagent.service;
+
+/**
+ * 知识库索引内容发生变化（新增或恢复了文档块）时由 DocumentLoadingService 发布，依赖检索结果的缓存据此失效
+ *
+ * @param sourceFile  发生变化的PDF文件名
+ * @param addedChunks 本次写入索引的文档块数
+ * @author 忍
+ */
+public record KnowledgeBaseChangedEvent(String sourceFile, int addedChunks) {
+}
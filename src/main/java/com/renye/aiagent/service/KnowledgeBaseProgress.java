@@ -0,0 +1,83 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.dto.KnowledgeBaseStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 记录知识库后台预热的进度，供状态接口和 RagService 的降级判断使用
+ *
+ * @author 忍
+ */
+@Component
+public class KnowledgeBaseProgress {
+
+    public enum State {
+        NOT_STARTED, LOADING, READY, FAILED
+    }
+
+    private volatile State state = State.NOT_STARTED;
+    private volatile String error;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile int totalFiles;
+    private final AtomicInteger loadedFiles = new AtomicInteger();
+    private final AtomicInteger failedFiles = new AtomicInteger();
+    private final AtomicLong parsedPages = new AtomicLong();
+    private final AtomicLong indexedChunks = new AtomicLong();
+
+    public void start(int totalFiles) {
+        this.totalFiles = totalFiles;
+        this.startedAt = System.currentTimeMillis();
+        this.state = State.LOADING;
+    }
+
+    public void pagesParsed(int pages) {
+        parsedPages.addAndGet(pages);
+    }
+
+    public void fileIndexed(int chunks) {
+        loadedFiles.incrementAndGet();
+        indexedChunks.addAndGet(chunks);
+    }
+
+    public void filesFailed(int count) {
+        failedFiles.addAndGet(count);
+    }
+
+    public void ready() {
+        this.finishedAt = System.currentTimeMillis();
+        this.state = State.READY;
+    }
+
+    public void failed(String error) {
+        this.error = error;
+        this.finishedAt = System.currentTimeMillis();
+        this.state = State.FAILED;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public long getIndexedChunks() {
+        return indexedChunks.get();
+    }
+
+    public KnowledgeBaseStatus snapshot() {
+        State current = state;
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        return new KnowledgeBaseStatus(
+                current.name(),
+                current == State.READY,
+                totalFiles,
+                loadedFiles.get(),
+                failedFiles.get(),
+                parsedPages.get(),
+                indexedChunks.get(),
+                startedAt > 0 ? end - startedAt : 0,
+                error);
+    }
+}
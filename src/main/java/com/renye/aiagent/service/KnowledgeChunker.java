@@ -0,0 +1,295 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.util.TokenCounter;
+import org.springframework.ai.document.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * 面向中文PDF的分块器：按 token 预算把每一页切成若干文档块，块与块之间保留少量重叠。
+ * <p>
+ * 切分边界优先级：标题行 > 句末标点（。！？；）> 强制按长度截断。
+ * PDF 抽取出的文本在版面换行处会断行，这里先把不以句末标点结尾的行拼回去，再按句子装箱。
+ * 分块不跨页，保证每个块的 page_number 元数据准确。
+ * 块id由来源文件、页码和块序号确定，同一份PDF重新入库时得到相同的id。
+ *
+ * @author 忍
+ */
+public class KnowledgeChunker {
+
+    public static final String CHUNK_INDEX_METADATA_KEY = "chunk_index";
+    // 页面元数据中的来源文件名（DocumentLoadingService 写入）和页码（PagePdfDocumentReader 写入）
+    public static final String SOURCE_METADATA_KEY = "sourceFile";
+    public static final String PAGE_METADATA_KEY = "page_number";
+
+    // 常见的标题形式：Markdown 标题、"第X章/节"、"1.2 xxx"、"一、xxx"、"（一）xxx"
+    private static final Pattern HEADING = Pattern.compile(
+            "^(#{1,6}\\s+.+|第[一二三四五六七八九十百\\d]+[章节篇部分].*|\\d+(\\.\\d+)*[、.．]\\s*\\S.*|[一二三四五六七八九十]+、.+|[（(][一二三四五六七八九十\\d]+[)）].+)$");
+    private static final String SENTENCE_END = "。！？；!?;";
+    // 超过此长度的行不视为标题
+    private static final int MAX_HEADING_LENGTH = 40;
+
+    private final int maxTokens;
+    private final int minTokens;
+    private final int overlapTokens;
+
+    public KnowledgeChunker(int maxTokens, int minTokens, int overlapTokens) {
+        this.maxTokens = Math.max(1, maxTokens);
+        this.minTokens = Math.max(0, Math.min(minTokens, this.maxTokens));
+        this.overlapTokens = Math.max(0, Math.min(overlapTokens, this.maxTokens / 2));
+    }
+
+    /**
+     * 对每页文档分块，块继承页面的全部元数据并追加 chunk_index，块id见 {@link #chunkId}
+     */
+    public List<Document> split(List<Document> pages) {
+        List<Document> chunks = new ArrayList<>();
+        for (Document page : pages) {
+            List<String> texts = split(page.getContent());
+            for (int i = 0; i < texts.size(); i++) {
+                Map<String, Object> metadata = new HashMap<>(page.getMetadata());
+                metadata.put(CHUNK_INDEX_METADATA_KEY, i);
+                chunks.add(new Document(chunkId(metadata, i), texts.get(i), metadata));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 将一段文本切分为若干块
+     */
+    public List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return chunks;
+        }
+        Window window = new Window();
+        for (Segment segment : segments(text)) {
+            int tokens = TokenCounter.estimate(segment.text());
+            boolean headingBreak = segment.heading() && window.total >= minTokens;
+            if (tokens <= maxTokens) {
+                // 新标题开启新主题，不保留重叠
+                emitIfFull(window, chunks, tokens, headingBreak);
+                window.add(segment.text(), tokens);
+                continue;
+            }
+            // 超长句子按长度硬切
+            for (String piece : hardSplit(segment.text())) {
+                int pieceTokens = TokenCounter.estimate(piece);
+                emitIfFull(window, chunks, pieceTokens, headingBreak);
+                window.add(piece, pieceTokens);
+            }
+        }
+        if (window.hasNewContent()) {
+            // 过短的尾块并入上一块（去掉与上一块重叠的句子），合并后超出 maxTokens 时仍单独成块
+            String merged = window.total < minTokens && !chunks.isEmpty()
+                    ? chunks.getLast() + window.newText() : null;
+            if (merged != null && TokenCounter.estimate(merged) <= maxTokens) {
+                chunks.set(chunks.size() - 1, merged);
+            } else {
+                chunks.add(window.text());
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 由来源文件、页码和块序号生成确定的块id（name-based UUID）。重新入库同一份PDF时id不变，
+     * 按id维护的 BM25 索引、向量存储和快照直接覆盖旧块，而不是积累重复文档；缺少来源文件名时退回随机id
+     */
+    static String chunkId(Map<String, Object> metadata, int chunkIndex) {
+        Object source = metadata.get(SOURCE_METADATA_KEY);
+        if (source == null) {
+            return UUID.randomUUID().toString();
+        }
+        String name = source + "\0" + metadata.get(PAGE_METADATA_KEY) + "\0" + chunkIndex;
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * 放不下下一句（或遇到新标题）时输出当前块，并只保留尾部重叠句子；重叠部分本身也放不下时一并丢弃
+     */
+    private void emitIfFull(Window window, List<String> chunks, int nextTokens, boolean headingBreak) {
+        if (!headingBreak && window.total + nextTokens <= maxTokens) {
+            return;
+        }
+        if (window.hasNewContent()) {
+            chunks.add(window.text());
+        }
+        window.slide(headingBreak ? 0 : overlapTokens);
+        if (window.total + nextTokens > maxTokens) {
+            window.slide(0);
+        }
+    }
+
+    /**
+     * 装箱中的当前块：句子序列、各句 token 数，以及开头有多少句是从上一块重叠过来的
+     */
+    private static final class Window {
+        private final Deque<String> sentences = new ArrayDeque<>();
+        private final Deque<Integer> tokens = new ArrayDeque<>();
+        private int total;
+        private int overlapCount;
+
+        void add(String sentence, int sentenceTokens) {
+            sentences.addLast(sentence);
+            tokens.addLast(sentenceTokens);
+            total += sentenceTokens;
+        }
+
+        boolean isEmpty() {
+            return sentences.isEmpty();
+        }
+
+        boolean hasNewContent() {
+            return sentences.size() > overlapCount;
+        }
+
+        String text() {
+            return String.join("", sentences);
+        }
+
+        String newText() {
+            return sentences.stream().skip(overlapCount).reduce("", String::concat);
+        }
+
+        /**
+         * 块输出后，仅保留尾部不超过 budget 个 token 的句子作为下一块的开头
+         */
+        void slide(int budget) {
+            Deque<String> keptSentences = new ArrayDeque<>();
+            Deque<Integer> keptTokens = new ArrayDeque<>();
+            int kept = 0;
+            while (!sentences.isEmpty() && kept + tokens.peekLast() <= budget) {
+                kept += tokens.peekLast();
+                keptSentences.addFirst(sentences.pollLast());
+                keptTokens.addFirst(tokens.pollLast());
+            }
+            sentences.clear();
+            tokens.clear();
+            sentences.addAll(keptSentences);
+            tokens.addAll(keptTokens);
+            total = kept;
+            overlapCount = keptSentences.size();
+        }
+    }
+
+    /**
+     * 把放不下的超长句子（代码、表格等没有句末标点的长段）切成不超过 maxTokens 的片段。
+     * token 数逐字增量计数（规则同 {@link TokenCounter#estimate}），尽量在空白或汉字之后断开，不把英文标识符切成两半；
+     * 片段内找不到断点时才在当前位置硬切
+     */
+    private List<String> hardSplit(String sentence) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        int cjk = 0;
+        int other = 0;
+        // 片段内最近的断点（空白或汉字之后）及到断点为止的计数
+        int lastBreak = -1;
+        int cjkAtBreak = 0;
+        int otherAtBreak = 0;
+        for (int i = 0; i < sentence.length(); i++) {
+            char c = sentence.charAt(i);
+            boolean isCjk = TokenCounter.isCjk(c);
+            if (isCjk) {
+                cjk++;
+            } else if (!Character.isWhitespace(c)) {
+                other++;
+            }
+            if (isCjk || Character.isWhitespace(c)) {
+                lastBreak = i + 1;
+                cjkAtBreak = cjk;
+                otherAtBreak = other;
+            }
+            if (cjk + (other + 3) / 4 < maxTokens || Character.isHighSurrogate(c)) {
+                continue;
+            }
+            int end = lastBreak > start ? lastBreak : i + 1;
+            // 断点处的空白留在片段末尾：片段在块内直接拼接，去掉空白会把相邻的两个单词连在一起
+            String piece = sentence.substring(start, end);
+            if (!piece.isBlank()) {
+                pieces.add(piece);
+            }
+            if (end == i + 1) {
+                cjk = 0;
+                other = 0;
+            } else {
+                cjk -= cjkAtBreak;
+                other -= otherAtBreak;
+            }
+            start = end;
+            lastBreak = -1;
+        }
+        String rest = sentence.substring(start);
+        if (!rest.isBlank()) {
+            pieces.add(rest);
+        }
+        return pieces;
+    }
+
+    private record Segment(String text, boolean heading) {
+    }
+
+    /**
+     * 把文本拆成句子/标题序列：先合并被版面换行打断的行，再按句末标点断句
+     */
+    private static List<Segment> segments(String text) {
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder paragraph = new StringBuilder();
+        for (String rawLine : text.split("\\R")) {
+            String line = rawLine.strip();
+            if (line.isEmpty()) {
+                flushSentences(paragraph, segments);
+                continue;
+            }
+            if (line.length() <= MAX_HEADING_LENGTH && HEADING.matcher(line).matches()) {
+                flushSentences(paragraph, segments);
+                segments.add(new Segment(line + "\n", true));
+                continue;
+            }
+            // 英文单词被换行分开时补一个空格，中文直接拼接
+            if (!paragraph.isEmpty() && isAsciiLetterOrDigit(paragraph.charAt(paragraph.length() - 1))
+                    && isAsciiLetterOrDigit(line.charAt(0))) {
+                paragraph.append(' ');
+            }
+            paragraph.append(line);
+            if (SENTENCE_END.indexOf(line.charAt(line.length() - 1)) >= 0) {
+                flushSentences(paragraph, segments);
+            }
+        }
+        flushSentences(paragraph, segments);
+        return segments;
+    }
+
+    private static void flushSentences(StringBuilder paragraph, List<Segment> segments) {
+        if (paragraph.isEmpty()) {
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < paragraph.length(); i++) {
+            if (SENTENCE_END.indexOf(paragraph.charAt(i)) >= 0) {
+                segments.add(new Segment(paragraph.substring(start, i + 1), false));
+                start = i + 1;
+            }
+        }
+        if (start < paragraph.length()) {
+            segments.add(new Segment(paragraph.substring(start), false));
+        }
+        // 段落结束时补换行，拼接后的块保留段落结构
+        Segment last = segments.remove(segments.size() - 1);
+        segments.add(new Segment(last.text() + "\n", last.heading()));
+        paragraph.setLength(0);
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return c < 128 && Character.isLetterOrDigit(c);
+    }
+}
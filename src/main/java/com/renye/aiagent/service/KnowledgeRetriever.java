@@ -0,0 +1,386 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.vectorstore.Bm25Index;
+import com.renye.aiagent.vectorstore.HnswVectorStore;
+import com.renye.aiagent.vectorstore.KnowledgeVectorStore;
+import com.renye.aiagent.vectorstore.TagIndex;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * 知识库检索：根据用户问题和面试焦点标签从 VectorStore 中取出最相关的文档块。
+ * <p>
+ * 多个标签按 any 方式匹配时，每个标签单独检索（走标签位图，只对该标签的文档打分），并行执行，
+ * 再按配额合并：每个标签先保证若干名额，剩余名额按归一化后的分数竞争。
+ * 不同标签下的相似度分布差异很大（热门标签的文档普遍更"像"问题），所以分数先在各标签内部做 min-max 归一化再比较。
+ * <p>
+ * 检索方式由 interview.rag.retrieval-mode 决定：vector 仅向量检索；hybrid 同时做向量检索和 BM25 词法检索，
+ * 按倒数排名融合（RRF）；lexical 仅 BM25，不调用 embedding。embedding 超时或失败时可降级为 lexical。
+ * 开启重排时先召回 rerank.candidates 个候选，再由 {@link LightweightReranker} 在进程内挑出 topK。
+ *
+ * @author 忍
+ */
+@Service
+public class KnowledgeRetriever {
+
+    private static final Logger log = LoggerFactory.getLogger(KnowledgeRetriever.class);
+
+    // 检索结果元数据中附带的统一排序分数（向量为相似度，BM25 为 BM25 分数，hybrid 为 RRF 分数；按标签分别检索时为标签内归一化分数）
+    public static final String SCORE_METADATA_KEY = "rag_score";
+
+    @Resource
+    private VectorStore vectorStore;
+
+    @Resource
+    private Bm25Index bm25Index;
+
+    @Resource
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    @Resource
+    private RetrievalCache retrievalCache;
+
+    @Resource
+    private LightweightReranker reranker;
+
+    @Resource
+    private ContextPacker contextPacker;
+
+    @Resource
+    private RagConfig ragConfig;
+
+    private final ExecutorService searchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * 一次检索的执行方式
+     *
+     * @param queryEmbedding 预先算好的查询向量，null 表示由 VectorStore 自行 embed（或不做向量检索）
+     * @param vector         是否做向量检索
+     * @param lexical        是否做 BM25 检索
+     * @param degraded       是否因 embedding 不可用而降级为纯词法检索，降级结果不写入缓存
+     */
+    private record Plan(float[] queryEmbedding, boolean vector, boolean lexical, boolean degraded) {
+    }
+
+    /**
+     * 检索与问题最相关的文档块并按 token 预算装成"相关资料"上下文，结果按 (问题, 标签集合, topK) 缓存
+     *
+     * @param query 用户问题
+     * @param tags  面试焦点标签，可为空
+     */
+    public RetrievedContext retrieveContext(String query, List<String> tags) {
+        List<String> normalizedTags = normalizeTags(tags);
+        String key = RetrievalCache.key(query, normalizedTags, ragConfig.getTopK(),
+                ragConfig.getTagMatch() + '/' + ragConfig.getRetrievalMode());
+        RetrievedContext cached = retrievalCache.get(key);
+        if (cached != null) {
+            log.info("命中检索结果缓存，复用 {} 条文档块。", cached.documentIds().size());
+            return cached;
+        }
+        long generation = retrievalCache.generation();
+        Plan plan = plan(query);
+        List<Document> documents = retrieve(query, normalizedTags, plan);
+        RetrievedContext result = contextPacker.pack(query, documents);
+        if (!plan.degraded()) {
+            retrievalCache.put(key, result, generation);
+        }
+        return result;
+    }
+
+    /**
+     * 检索与问题最相关的文档块
+     *
+     * @param query 用户问题
+     * @param tags  面试焦点标签，可为空
+     */
+    public List<Document> retrieve(String query, List<String> tags) {
+        return retrieve(query, normalizeTags(tags), plan(query));
+    }
+
+    private List<Document> retrieve(String query, List<String> normalizedTags, Plan plan) {
+        int topK = ragConfig.getTopK();
+        RagConfig.Rerank rerank = ragConfig.getRerank();
+        if (!rerank.isEnabled()) {
+            return retrieveCandidates(query, normalizedTags, plan, topK);
+        }
+        // 先多召回一些候选，再在进程内重排挑出 topK；按标签分别检索时重排仍按最终 topK 保证每个标签的配额
+        List<Document> candidates = retrieveCandidates(query, normalizedTags, plan, Math.max(topK, rerank.getCandidates()));
+        int perTagQuota = isPerTag(normalizedTags) ? perTagQuota(topK, normalizedTags.size()) : 0;
+        return reranker.rerank(query, normalizedTags, candidates, topK, perTagQuota);
+    }
+
+    private List<Document> retrieveCandidates(String query, List<String> normalizedTags, Plan plan, int topK) {
+        if (normalizedTags.isEmpty()) {
+            log.info("没有有效的标签过滤器，仅基于用户查询进行检索。");
+            return search(query, plan, null, topK);
+        }
+        if (!isPerTag(normalizedTags)) {
+            Filter.Expression filter = tagFilter(normalizedTags);
+            log.info("VectorStore查询将使用过滤器表达式: {}", filter);
+            return search(query, plan, filter, topK);
+        }
+        return searchPerTag(query, plan, normalizedTags, topK);
+    }
+
+    /**
+     * 多个标签按 any 方式匹配时每个标签单独检索
+     */
+    private boolean isPerTag(List<String> normalizedTags) {
+        return normalizedTags.size() > 1 && !"all".equalsIgnoreCase(ragConfig.getTagMatch());
+    }
+
+    /**
+     * 按标签分别检索时每个标签保证的名额
+     */
+    static int perTagQuota(int topK, int tagCount) {
+        return Math.max(1, topK / tagCount);
+    }
+
+    /**
+     * 根据检索方式决定是否需要查询向量。问题只 embed 一次（且优先走缓存），多次检索复用同一个查询向量；
+     * 不支持传入向量的 VectorStore 仍由其内部自行 embed。
+     */
+    private Plan plan(String query) {
+        String mode = ragConfig.getRetrievalMode();
+        if ("lexical".equalsIgnoreCase(mode)) {
+            return new Plan(null, false, true, false);
+        }
+        boolean hybrid = "hybrid".equalsIgnoreCase(mode);
+        if (!(vectorStore instanceof KnowledgeVectorStore)) {
+            return new Plan(null, true, hybrid, false);
+        }
+        RagConfig.Hybrid config = ragConfig.getHybrid();
+        try {
+            float[] queryEmbedding = CompletableFuture.supplyAsync(() -> queryEmbeddingCache.embed(query), searchExecutor)
+                    .get(config.getEmbeddingTimeoutMillis(), TimeUnit.MILLISECONDS);
+            return new Plan(queryEmbedding, true, hybrid, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("计算问题向量时被中断", e);
+        } catch (TimeoutException | ExecutionException e) {
+            String reason = e instanceof TimeoutException
+                    ? "超时(" + config.getEmbeddingTimeoutMillis() + "ms)" : String.valueOf(e.getCause());
+            if (!config.isLexicalFallback() || bm25Index.size() == 0) {
+                throw new IllegalStateException("计算问题向量失败: " + reason, e);
+            }
+            log.warn("计算问题向量失败: {}，本轮降级为BM25词法检索。", reason);
+            return new Plan(null, false, true, true);
+        }
+    }
+
+    /**
+     * 每个标签单独检索后按配额合并
+     */
+    private List<Document> searchPerTag(String query, Plan plan, List<String> tags, int topK) {
+        long start = System.nanoTime();
+        int quota = perTagQuota(topK, tags.size());
+        int candidatesPerTag = Math.max(topK, quota * ragConfig.getPerTagCandidateFactor());
+
+        Semaphore permits = new Semaphore(Math.max(1, ragConfig.getMaxParallelTags()));
+        List<CompletableFuture<List<Document>>> futures = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    return search(query, plan, tagFilter(List.of(tag)), candidatesPerTag);
+                } catch (RuntimeException e) {
+                    log.warn("标签 [{}] 检索失败，跳过该标签: {}", tag, e.getMessage());
+                    return List.of();
+                } finally {
+                    permits.release();
+                }
+            }, searchExecutor));
+        }
+        List<List<Document>> perTagResults = futures.stream().map(CompletableFuture::join).toList();
+        List<Document> merged = mergeWithQuotas(perTagResults, quota, topK);
+        log.info("按 {} 个标签分别检索并合并，每标签配额 {}，候选 {}，最终 {} 条，耗时 {}ms", tags.size(), quota,
+                perTagResults.stream().mapToInt(List::size).sum(), merged.size(), (System.nanoTime() - start) / 1_000_000);
+        return merged;
+    }
+
+    /**
+     * 按检索方式执行一次（可带过滤条件的）检索，返回的文档元数据中都带有 rag_score
+     */
+    private List<Document> search(String query, Plan plan, Filter.Expression filter, int topK) {
+        if (!plan.vector()) {
+            return withScores(bm25Index.search(query, topK, filter),
+                    document -> ((Number) document.getMetadata().get(Bm25Index.SCORE_METADATA_KEY)).doubleValue());
+        }
+        RagConfig.Hybrid config = ragConfig.getHybrid();
+        int candidates = plan.lexical() ? Math.max(topK, config.getCandidates()) : topK;
+        List<Document> vectorResults = withScores(vectorSearch(query, plan.queryEmbedding(), filter, candidates),
+                KnowledgeRetriever::similarity);
+        if (!plan.lexical()) {
+            return vectorResults;
+        }
+        List<Document> lexicalResults = bm25Index.search(query, candidates, filter);
+        return reciprocalRankFusion(vectorResults, lexicalResults, config.getRrfK(), topK);
+    }
+
+    private List<Document> vectorSearch(String query, float[] queryEmbedding, Filter.Expression filter, int topK) {
+        SearchRequest.Builder builder = SearchRequest.builder().query(query).topK(topK);
+        if (filter != null) {
+            builder.filterExpression(filter);
+        }
+        SearchRequest request = builder.build();
+        if (queryEmbedding != null && vectorStore instanceof KnowledgeVectorStore knowledgeVectorStore) {
+            return knowledgeVectorStore.similaritySearch(queryEmbedding, request);
+        }
+        return vectorStore.similaritySearch(request);
+    }
+
+    /**
+     * 倒数排名融合：score = Σ 1 / (k + rank)。只看名次不看原始分数，向量相似度和 BM25 分数无需换算到同一量纲
+     */
+    static List<Document> reciprocalRankFusion(List<Document> vectorResults, List<Document> lexicalResults, int k, int topK) {
+        Map<String, Double> fused = new LinkedHashMap<>();
+        Map<String, Document> documentsById = new HashMap<>();
+        for (List<Document> results : List.of(vectorResults, lexicalResults)) {
+            for (int rank = 0; rank < results.size(); rank++) {
+                Document document = results.get(rank);
+                fused.merge(document.getId(), 1.0 / (k + rank + 1), Double::sum);
+                documentsById.putIfAbsent(document.getId(), document);
+            }
+        }
+        List<Document> ranked = fused.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(topK)
+                .map(entry -> withScore(documentsById.get(entry.getKey()), entry.getValue()))
+                .collect(Collectors.toCollection(ArrayList::new));
+        if (log.isDebugEnabled()) {
+            log.debug("RRF融合: 向量 {} 条，BM25 {} 条，融合后 {} 条", vectorResults.size(), lexicalResults.size(), ranked.size());
+        }
+        return ranked;
+    }
+
+    private static List<Document> withScores(List<Document> documents, ToDoubleFunction<Document> scorer) {
+        List<Document> scored = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            scored.add(withScore(document, scorer.applyAsDouble(document)));
+        }
+        return scored;
+    }
+
+    private static Document withScore(Document document, double score) {
+        Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+        metadata.put(SCORE_METADATA_KEY, score);
+        return new Document(document.getId(), document.getContent(), metadata);
+    }
+
+    /**
+     * 多个标签时生成 AND 组合，文档需同时包含全部标签
+     */
+    private static Filter.Expression tagFilter(List<String> tags) {
+        Filter.Expression expression = null;
+        for (String tag : tags) {
+            Filter.Expression eq = new Filter.Expression(Filter.ExpressionType.EQ,
+                    new Filter.Key(TagIndex.TAG_METADATA_KEY), new Filter.Value(tag));
+            expression = expression == null ? eq : new Filter.Expression(Filter.ExpressionType.AND, expression, eq);
+        }
+        return expression;
+    }
+
+    private static List<String> normalizeTags(List<String> tags) {
+        return tags == null ? List.of() : tags.stream()
+                .map(TagIndex::normalize)
+                .filter(tag -> !tag.isEmpty())
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * 按配额合并各标签的检索结果：每个标签先取前 quota 条，名额不够时按归一化分数截断，有剩余名额再由所有候选按归一化分数补齐。
+     * 返回的文档中 rag_score 改写为归一化分数，原始分数在不同标签之间不可比，下游（重排等）只应使用归一化后的分数
+     */
+    static List<Document> mergeWithQuotas(List<List<Document>> perTagResults, int quota, int topK) {
+        // 文档id -> 归一化分数（同一文档出现在多个标签下时取最高分）
+        Map<String, Double> normalizedScores = new LinkedHashMap<>();
+        Map<String, Document> documentsById = new LinkedHashMap<>();
+        List<Document> reserved = new ArrayList<>();
+        Set<String> reservedIds = new HashSet<>();
+        for (List<Document> results : perTagResults) {
+            double[] normalized = normalize(results);
+            int taken = 0;
+            for (int i = 0; i < results.size(); i++) {
+                Document document = results.get(i);
+                documentsById.putIfAbsent(document.getId(), document);
+                normalizedScores.merge(document.getId(), normalized[i], Math::max);
+                if (taken < quota && reservedIds.add(document.getId())) {
+                    reserved.add(document);
+                    taken++;
+                }
+            }
+        }
+        Comparator<Document> byNormalizedScore = Comparator.comparingDouble(
+                (Document document) -> normalizedScores.get(document.getId())).reversed();
+        List<Document> merged = new ArrayList<>(reserved);
+        if (merged.size() < topK) {
+            documentsById.values().stream()
+                    .filter(document -> !reservedIds.contains(document.getId()))
+                    .sorted(byNormalizedScore)
+                    .limit(topK - merged.size())
+                    .forEach(merged::add);
+        }
+        merged.sort(byNormalizedScore);
+        List<Document> result = new ArrayList<>(Math.min(topK, merged.size()));
+        for (Document document : merged.subList(0, Math.min(topK, merged.size()))) {
+            result.add(withScore(document, normalizedScores.get(document.getId())));
+        }
+        return result;
+    }
+
+    /**
+     * 标签内按 rag_score 做 min-max 归一化到 [0, 1]；只有一条结果或分数全部相同时记为 1
+     */
+    private static double[] normalize(List<Document> results) {
+        double[] scores = new double[results.size()];
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < scores.length; i++) {
+            Object score = results.get(i).getMetadata().get(SCORE_METADATA_KEY);
+            scores[i] = score instanceof Number number ? number.doubleValue() : 0.0;
+            min = Math.min(min, scores[i]);
+            max = Math.max(max, scores[i]);
+        }
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = max > min ? (scores[i] - min) / (max - min) : 1.0;
+        }
+        return scores;
+    }
+
+    private static double similarity(Document document) {
+        Object distance = document.getMetadata().get(HnswVectorStore.DISTANCE_METADATA_KEY);
+        return distance instanceof Number number ? 1.0 - number.doubleValue() : 0.0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,199 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.util.TextTokenizer;
+import com.renye.aiagent.vectorstore.TagIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 进程内的轻量重排：从较多的候选文档块中挑出最终注入提示词的 topK 个，不调用任何模型或网络接口。
+ * <p>
+ * 每个候选的基础分由三部分加权：
+ * <ul>
+ *     <li>检索分：候选内按 rag_score 做 min-max 归一化；按标签分别检索的候选已带有标签内归一化分数，直接使用</li>
+ *     <li>词项覆盖：问题中的词项有多大比例出现在文档块中（分词同 BM25，见 {@link TextTokenizer}）</li>
+ *     <li>标签加分：文档块的 doc_tags 覆盖了多少本次面试的焦点标签</li>
+ * </ul>
+ * 再按 MMR（最大边际相关）逐个挑选：λ × 基础分 − (1 − λ) × 与已选文档块的最大词项 Jaccard 相似度，
+ * 避免相邻、重叠的文档块把有限的名额占满。
+ * 按标签分别检索时仍保证每个标签的配额：剩余名额只够补齐未满配额的标签时，只在这些标签的候选中挑选。
+ *
+ * @author 忍
+ */
+@Component
+public class LightweightReranker {
+
+    private static final Logger log = LoggerFactory.getLogger(LightweightReranker.class);
+
+    private final RagConfig.Rerank config;
+
+    public LightweightReranker(RagConfig ragConfig) {
+        this.config = ragConfig.getRerank();
+    }
+
+    /**
+     * 从候选中挑出 topK 个，按挑选顺序返回
+     *
+     * @param query          用户问题
+     * @param normalizedTags 规范化后的焦点标签，可为空
+     * @param candidates     检索得到的候选，元数据中带有 rag_score
+     * @param perTagQuota    按标签分别检索时每个标签至少保留的个数（候选不足时以候选数为限），0 表示不按标签分配名额
+     */
+    public List<Document> rerank(String query, List<String> normalizedTags, List<Document> candidates, int topK,
+                                 int perTagQuota) {
+        if (candidates.size() <= 1) {
+            return candidates;
+        }
+        long start = System.nanoTime();
+        Set<String> queryTerms = new HashSet<>(TextTokenizer.tokenize(query));
+        int n = candidates.size();
+        // 按标签分别检索的 rag_score 已在标签内归一化，再跨标签归一化会重新引入标签间的分布差异
+        double[] relevance = perTagQuota > 0 ? scores(candidates) : normalizedScores(candidates);
+        double[] base = new double[n];
+        List<Set<String>> terms = new ArrayList<>(n);
+        List<String> quotaTags = perTagQuota > 0 ? normalizedTags : List.of();
+        boolean[][] tagged = new boolean[n][quotaTags.size()];
+        // 每个标签还差几个才满配额
+        int[] missing = new int[quotaTags.size()];
+        for (int i = 0; i < n; i++) {
+            Document document = candidates.get(i);
+            Set<String> documentTerms = new HashSet<>(TextTokenizer.tokenize(document.getContent()));
+            terms.add(documentTerms);
+            List<String> documentTags = TagIndex.parseTags(document.getMetadata().get(TagIndex.TAG_METADATA_KEY));
+            for (int t = 0; t < quotaTags.size(); t++) {
+                if (documentTags.contains(quotaTags.get(t))) {
+                    tagged[i][t] = true;
+                    missing[t]++;
+                }
+            }
+            base[i] = config.getRelevanceWeight() * relevance[i]
+                    + config.getOverlapWeight() * coverage(queryTerms, documentTerms)
+                    + config.getTagBoost() * tagMatch(normalizedTags, documentTags);
+        }
+        int totalMissing = 0;
+        for (int t = 0; t < missing.length; t++) {
+            missing[t] = Math.min(missing[t], perTagQuota);
+            totalMissing += missing[t];
+        }
+
+        double lambda = config.getMmrLambda();
+        // 每个候选与已选集合的最大相似度，每选出一个就增量更新
+        double[] maxSimilarity = new double[n];
+        boolean[] selected = new boolean[n];
+        List<Document> result = new ArrayList<>(Math.min(topK, n));
+        while (result.size() < topK && result.size() < n) {
+            // 剩余名额只够补齐配额时，只考虑能补齐配额的候选
+            boolean quotaOnly = totalMissing > 0 && totalMissing >= topK - result.size();
+            int best = -1;
+            double bestScore = -Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                if (selected[i] || (quotaOnly && !fillsQuota(tagged[i], missing))) {
+                    continue;
+                }
+                double score = lambda * base[i] - (1 - lambda) * maxSimilarity[i];
+                if (score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            selected[best] = true;
+            result.add(candidates.get(best));
+            for (int t = 0; t < missing.length; t++) {
+                if (tagged[best][t] && missing[t] > 0) {
+                    missing[t]--;
+                    totalMissing--;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (!selected[i]) {
+                    maxSimilarity[i] = Math.max(maxSimilarity[i], jaccard(terms.get(best), terms.get(i)));
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("重排完成: 候选 {} 个，选出 {} 个，耗时 {}μs", n, result.size(), (System.nanoTime() - start) / 1000);
+        }
+        return result;
+    }
+
+    private static boolean fillsQuota(boolean[] tagged, int[] missing) {
+        for (int t = 0; t < missing.length; t++) {
+            if (tagged[t] && missing[t] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double[] scores(List<Document> candidates) {
+        double[] scores = new double[candidates.size()];
+        for (int i = 0; i < scores.length; i++) {
+            Object score = candidates.get(i).getMetadata().get(KnowledgeRetriever.SCORE_METADATA_KEY);
+            scores[i] = score instanceof Number number ? number.doubleValue() : 0.0;
+        }
+        return scores;
+    }
+
+    private static double[] normalizedScores(List<Document> candidates) {
+        double[] scores = scores(candidates);
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < scores.length; i++) {
+            min = Math.min(min, scores[i]);
+            max = Math.max(max, scores[i]);
+        }
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = max > min ? (scores[i] - min) / (max - min) : 1.0;
+        }
+        return scores;
+    }
+
+    private static double coverage(Set<String> queryTerms, Set<String> documentTerms) {
+        if (queryTerms.isEmpty()) {
+            return 0.0;
+        }
+        int matched = 0;
+        for (String term : queryTerms) {
+            if (documentTerms.contains(term)) {
+                matched++;
+            }
+        }
+        return (double) matched / queryTerms.size();
+    }
+
+    private static double tagMatch(List<String> normalizedTags, List<String> documentTags) {
+        if (normalizedTags.isEmpty()) {
+            return 0.0;
+        }
+        int matched = 0;
+        for (String tag : normalizedTags) {
+            if (documentTags.contains(tag)) {
+                matched++;
+            }
+        }
+        return (double) matched / normalizedTags.size();
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return 0.0;
+        }
+        Set<String> smaller = a.size() <= b.size() ? a : b;
+        Set<String> larger = smaller == a ? b : a;
+        int intersection = 0;
+        for (String term : smaller) {
+            if (larger.contains(term)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (a.size() + b.size() - intersection);
+    }
+}
@@ -0,0 +1,115 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.dto.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 用户问题的向量缓存（LRU，按估算字节数限制容量）。
+ * <p>
+ * 候选人的回答里有大量重复的短句（"不知道"、"可以再说一遍吗"），同样的问题也会在不同会话里反复出现，
+ * 命中缓存时直接复用向量，不再调用 embedding 接口。key 为 embedding 模型名 + 规范化后的问题文本。
+ *
+ * @author 忍
+ */
+@Component
+public class QueryEmbeddingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryEmbeddingCache.class);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // 句尾的断句标点不影响语义，去掉后 "不知道。" 与 "不知道" 共用一条缓存；
+    // 只去断句标点，"C++"、"C#" 这类词尾符号是词的一部分（TextTokenizer 同样保留），不能去掉
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[。，！？；：、…～.,!?;:\\s]+$");
+    // 每个条目除 key 和向量之外的固定开销估算（对象头、链表节点等）
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final EmbeddingModel embeddingModel;
+    private final String embeddingModelName;
+    private final boolean enabled;
+    private final long maxBytes;
+
+    // access-order 的 LinkedHashMap 即 LRU，最久未使用的条目在最前
+    private final LinkedHashMap<String, float[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public QueryEmbeddingCache(EmbeddingModel embeddingModel, RagConfig ragConfig,
+                               @Value("${spring.ai.dashscope.embedding.options.model:text-embedding-v2}") String embeddingModelName) {
+        this.embeddingModel = embeddingModel;
+        this.embeddingModelName = embeddingModelName;
+        this.enabled = ragConfig.getQueryEmbeddingCache().isEnabled();
+        this.maxBytes = ragConfig.getQueryEmbeddingCache().getMaxBytes();
+    }
+
+    /**
+     * 返回问题的向量，命中缓存时不调用 EmbeddingModel。返回的数组由缓存共享，调用方不得修改。
+     */
+    public float[] embed(String query) {
+        if (!enabled) {
+            return embeddingModel.embed(query);
+        }
+        String key = embeddingModelName + '\0' + normalize(query);
+        synchronized (this) {
+            float[] cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        // 网络调用不持锁；同一问题并发未命中时可能重复 embed 一次，结果相同，后写入者覆盖即可
+        float[] vector = embeddingModel.embed(query);
+        put(key, vector);
+        return vector;
+    }
+
+    private synchronized void put(String key, float[] vector) {
+        long weight = weigh(key, vector);
+        if (weight > maxBytes) {
+            return;
+        }
+        float[] previous = entries.put(key, vector);
+        if (previous != null) {
+            sizeBytes -= weigh(key, previous);
+        }
+        sizeBytes += weight;
+        Iterator<Map.Entry<String, float[]>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, float[]> eldest = iterator.next();
+            sizeBytes -= weigh(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            evictions++;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("问题向量缓存写入，当前 {} 条，约 {} KB", entries.size(), sizeBytes / 1024);
+        }
+    }
+
+    public synchronized CacheStats stats() {
+        return CacheStats.of(hits, misses, evictions, entries.size(), sizeBytes);
+    }
+
+    private static long weigh(String key, float[] vector) {
+        return ENTRY_OVERHEAD_BYTES + 2L * key.length() + (long) Float.BYTES * vector.length;
+    }
+
+    /**
+     * 规范化问题文本：首尾空白、连续空白和句尾断句标点不影响缓存命中。结果只用作缓存 key，不能代替原文去检索
+     */
+    static String normalize(String query) {
+        String text = WHITESPACE.matcher(query.strip()).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(text).replaceAll("");
+    }
+}
@@ -1,6 +1,5 @@
 package com.renye.aiagent.service;
 
-import com.renye.aiagent.config.KnowledgeBaseConfig;
 import com.renye.aiagent.dto.ResumeInfo;
 import com.renye.aiagent.session.InterviewContext;
 import org.slf4j.Logger;
@@ -10,21 +9,13 @@ import org.springframework.ai.chat.messages.MessageType;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.ai.vectorstore.filter.Filter;
-import org.springframework.ai.vectorstore.filter.Filter.Expression;
-import org.springframework.ai.vectorstore.filter.Filter.ExpressionType;
-import org.springframework.ai.vectorstore.filter.Filter.Key;
-import org.springframework.ai.vectorstore.filter.Filter.Value;
 
 
 
 
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 import reactor.core.publisher.Flux;
 import jakarta.annotation.Resource; // 或 javax.annotation.Resource，取决于您的Jakarta EE版本
@@ -33,7 +24,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author 忍
@@ -47,11 +38,18 @@ public class RagService {
     @Resource
     private ChatModel chatModel;
 
+    // 按问题和标签检索知识库
     @Resource
-    private VectorStore vectorStore;
-    // 用于获取tag到知识库
+    private KnowledgeRetriever knowledgeRetriever;
+    // 会话开头几轮的语义回答缓存（默认关闭）
     @Resource
-    private KnowledgeBaseConfig knowledgeBaseConfig;
+    private SemanticAnswerCache semanticAnswerCache;
+    // 作答过程中预取的检索结果
+    @Resource
+    private RetrievalPrefetcher retrievalPrefetcher;
+    // 知识库后台预热进度，预热完成前降级检索
+    @Resource
+    private KnowledgeBaseProgress knowledgeBaseProgress;
 
     /**
      * RAG 流式处理方法
@@ -64,6 +62,21 @@ public class RagService {
             List<Message> allMessagesIncludingDynamicSystem,
             // 从 OpenAIChatRequest 直接传入的tags，用于知识库检索
             List<String> tagsForRag
+    ) {
+        return streamWithRag(allMessagesIncludingDynamicSystem, tagsForRag, null);
+    }
+
+    /**
+     * RAG 流式处理方法，优先使用该会话通过 /chat/prefetch 预取的检索结果
+     * @param allMessagesIncludingDynamicSystem 包含客户端发来的历史和当前用户输入 (但不包括最终的系统提示)
+     * @param tagsForRag RAG所需标签
+     * @param interviewSessionId 面试会话id，可为空（不使用预取）
+     * @return LLM生成的ChatResponse流
+     */
+    public Flux<ChatResponse> streamWithRag(
+            List<Message> allMessagesIncludingDynamicSystem,
+            List<String> tagsForRag,
+            String interviewSessionId
     ) {
         String currentUserQuery = "";
         // 从 messagesFromClient 提取当前用户查询（通常是最后一条USER类型的消息）
@@ -83,67 +96,45 @@ public class RagService {
 
         log.info("RAG处理：用户查询='{}', 使用会话中的焦点标签={}", currentUserQuery,tagsForRag);
 
-
-        Filter.Expression finalFilterExpression = null;
-        if (!CollectionUtils.isEmpty(tagsForRag)) {
-            List<Expression> tagExpressions = new ArrayList<>();
-            for (String tag : tagsForRag) {
-                // 假设您的 DocumentLoadingService 在存储文档时，
-                // 将标签存储在元数据的 "doc_tags_list" 字段中 (例如，作为列表或可以被EQ匹配的单个文本)。
-                // Filter.ExpressionType.EQ 通常用于精确匹配。
-                // 如果 "doc_tags_list" 是一个列表，并且 VectorStore 支持对列表元素的EQ查询，这是可行的。
-                // 如果 "doc_tags_list" 是一个包含多个标签的文本（如 "java,spring"），则EQ "java" 不会匹配。
-                // 您需要确保元数据存储方式与这里的过滤方式匹配。
-                // 假设我们希望匹配元数据字段 "doc_tag" (单个标签) 等于前端传来的任一标签：
-                tagExpressions.add(new Expression(ExpressionType.EQ, new Key("doc_tag_exact_match"), new Value(tag.toLowerCase())));
-                // 或者，如果您在 DocumentLoadingService 中将每个标签作为单独的布尔元数据字段存储，
-                // 例如 metadata.put("tag_java", true)，那么可以这样过滤：
-                // tagExpressions.add(new Expression(ExpressionType.EQ, new Key("tag_" + tag.toLowerCase()), new Filter.Value(true)));
+        // 会话开头几轮（问好、自我介绍）先查语义回答缓存，命中时直接重放，不检索也不调用LLM
+        SemanticAnswerCache.Lookup answerLookup = null;
+        long userTurns = allMessagesIncludingDynamicSystem.stream()
+                .filter(msg -> msg.getMessageType() == MessageType.USER)
+                .count();
+        if (semanticAnswerCache.isApplicable((int) userTurns)) {
+            Message first = allMessagesIncludingDynamicSystem.get(0);
+            String systemPrompt = first.getMessageType() == MessageType.SYSTEM ? first.getText() : null;
+            answerLookup = semanticAnswerCache.lookup(systemPrompt, tagsForRag, currentUserQuery);
+            if (answerLookup != null && answerLookup.hit()) {
+                return semanticAnswerCache.replay(answerLookup.answer());
             }
+        }
 
-            if (tagExpressions.size() == 1) {
-                finalFilterExpression = tagExpressions.get(0);
+        // 知识库仍在后台预热：有部分索引就用部分索引，一个文档块都还没有就直接调用LLM
+        if (!knowledgeBaseProgress.isReady()) {
+            long indexedChunks = knowledgeBaseProgress.getIndexedChunks();
+            if (indexedChunks == 0) {
+                log.info("知识库仍在预热且暂无可用文档，本轮不使用RAG，直接调用LLM。");
+                return chatModel.stream(new Prompt(allMessagesIncludingDynamicSystem));
             }
+            log.info("知识库仍在预热，基于已索引的 {} 个文档块进行检索。", indexedChunks);
         }
 
-        // ---- 执行相似度搜索 (带元数据过滤) ----
-        // 主要还是基于用户问题进行语义搜索
-        SearchRequest searchRequest = SearchRequest.builder()
-                .query(currentUserQuery)
-                .topK(3)
-                .build(); // 每个标签组合条件下，检索最相关的3个文档块
 
-        if (finalFilterExpression != null) {
-
-            searchRequest = searchRequest.withFilterExpression(finalFilterExpression);
-            log.info("VectorStore查询将使用过滤器表达式: {}", finalFilterExpression.toString());
-        } else {
-            log.info("没有有效的标签过滤器，仅基于用户查询进行语义搜索。");
-        }
-
-        List<Document> relevantDocuments = new ArrayList<>();
+        // ---- 执行相似度搜索 (按标签过滤，多标签时分别检索后按配额合并；相同问题和标签复用缓存) ----
+        String contextInformation = "";
         try {
-            relevantDocuments = vectorStore.similaritySearch(searchRequest);
-            log.info("从VectorStore检索到 {} 条与查询和/或标签相关的文档。", relevantDocuments.size());
+            RetrievedContext retrieved = retrievalPrefetcher.take(interviewSessionId, currentUserQuery, tagsForRag);
+            if (retrieved == null) {
+                retrieved = knowledgeRetriever.retrieveContext(currentUserQuery, tagsForRag);
+            }
+            contextInformation = retrieved.context();
+            log.info("从VectorStore检索到 {} 条与查询和/或标签相关的文档。", retrieved.documentIds().size());
         } catch (Exception e) {
             log.error("从VectorStore检索文档时出错: {}", e.getMessage(), e);
             // 即使检索失败，也应继续尝试无RAG的回复，或返回错误信息
         }
 
-        String contextInformation = relevantDocuments.stream()
-                .distinct() // 去重，以防万一
-                .map(doc -> {
-                    // 尝试从元数据获取更友好的来源名称
-                    String sourceName = "知识库参考";
-                    if (doc.getMetadata().containsKey("sourceFile")) {
-                        sourceName = doc.getMetadata().get("sourceFile").toString();
-                    } else if (doc.getMetadata().containsKey("doc_tag_exact_match")) {
-                        sourceName = "关于 " + doc.getMetadata().get("doc_tag_exact_match").toString() + " 的资料";
-                    }
-                    return "相关资料 (" + sourceName + "):\n\"" + doc.getContent() + "\"";
-                })
-                .collect(Collectors.joining("\n---\n"));
-
         // ---- 构建最终发送给LLM的消息列表 ----
         // 复制一份，准备修改
         List<Message> finalLlmMessages = new ArrayList<>(allMessagesIncludingDynamicSystem);
@@ -184,6 +175,33 @@ public class RagService {
         }
 
 
-        return chatModel.stream(augmentedPrompt);
+        Flux<ChatResponse> responseFlux = chatModel.stream(augmentedPrompt);
+        return answerLookup == null ? responseFlux : cacheAnswerOnStop(responseFlux, answerLookup);
+    }
+
+    /**
+     * 聚合流式回答，模型以 STOP 正常结束时写入语义回答缓存；出错、被截断或被取消的回答不缓存
+     */
+    private Flux<ChatResponse> cacheAnswerOnStop(Flux<ChatResponse> responseFlux, SemanticAnswerCache.Lookup answerLookup) {
+        StringBuilder answer = new StringBuilder();
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        return responseFlux
+                .doOnNext(response -> {
+                    Generation generation = response.getResult();
+                    if (generation == null || generation.getOutput() == null) {
+                        return;
+                    }
+                    if (generation.getOutput().getText() != null) {
+                        answer.append(generation.getOutput().getText());
+                    }
+                    if (generation.getMetadata() != null && "stop".equalsIgnoreCase(generation.getMetadata().getFinishReason())) {
+                        stopped.set(true);
+                    }
+                })
+                .doOnComplete(() -> {
+                    if (stopped.get()) {
+                        semanticAnswerCache.put(answerLookup, answer.toString());
+                    }
+                });
     }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.dto.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 检索结果缓存：key 为 (规范化问题, 标签集合, topK, 标签匹配方式)，value 为排好序的文档块id和渲染好的上下文。
+ * <p>
+ * 同一会话里候选人重复提问、或不同会话问同一个问题时，直接复用上一次的检索结果，省去检索和上下文拼接。
+ * 条目按写入时间过期（TTL），超过条目上限时淘汰最久未使用的条目。
+ * 知识库索引变化时（{@link KnowledgeBaseChangedEvent}）整体失效；失效前开始、失效后才完成的检索结果不会写入缓存。
+ *
+ * @author 忍
+ */
+@Component
+public class RetrievalCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RetrievalCache.class);
+
+    private record Entry(RetrievedContext value, long expiresAt) {
+    }
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // 每次失效加一，用于丢弃基于旧索引算出的结果
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public RetrievalCache(RagConfig ragConfig) {
+        RagConfig.RetrievalCache config = ragConfig.getRetrievalCache();
+        this.enabled = config.isEnabled();
+        this.maxEntries = Math.max(1, config.getMaxEntries());
+        this.ttlMillis = config.getTtlSeconds() * 1000L;
+    }
+
+    public static String key(String query, List<String> tags, int topK, String tagMatch) {
+        return QueryEmbeddingCache.normalize(query) + '\0' + String.join(",", new TreeSet<>(tags))
+                + '\0' + topK + '\0' + tagMatch;
+    }
+
+    /**
+     * 查询缓存，未命中或已过期返回 null
+     */
+    public synchronized RetrievedContext get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt() <= System.currentTimeMillis()) {
+            entries.remove(key);
+            evictions++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value();
+    }
+
+    /**
+     * 当前的缓存代数，检索开始前获取，写入时原样传回
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized void put(String key, RetrievedContext value, long generationAtStart) {
+        if (!enabled || generationAtStart != generation) {
+            return;
+        }
+        entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMillis));
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    @EventListener
+    public synchronized void onKnowledgeBaseChanged(KnowledgeBaseChangedEvent event) {
+        generation++;
+        if (!entries.isEmpty()) {
+            log.info("知识库索引已变化（{} 新增 {} 个文档块），清空 {} 条检索结果缓存。",
+                    event.sourceFile(), event.addedChunks(), entries.size());
+            evictions += entries.size();
+            entries.clear();
+        }
+    }
+
+    public synchronized CacheStats stats() {
+        long sizeBytes = 0;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            sizeBytes += 2L * (entry.getKey().length() + entry.getValue().value().context().length());
+        }
+        return CacheStats.of(hits, misses, evictions, entries.size(), sizeBytes);
+    }
+}
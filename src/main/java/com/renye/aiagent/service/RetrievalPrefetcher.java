@@ -0,0 +1,204 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.dto.CacheStats;
+import com.renye.aiagent.vectorstore.TagIndex;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 推测式检索预取：候选人还在作答时，前端把语音识别的中间结果发过来，提前做 embedding 和检索，
+ * 等最终的 /chat/completions 请求到达时上下文已经准备好，检索不再占用首 token 的等待时间。
+ * <p>
+ * 每个会话（interviewSessionId）只保留最近一次预取，新的中间结果会替换旧的。最终问题到达时：
+ * <ul>
+ *     <li>与预取文本相同，或预取文本是最终问题的前缀且覆盖了其大部分内容（min-coverage）：直接使用预取结果，
+ *     预取尚未完成时最多等待 max-wait-millis</li>
+ *     <li>否则丢弃预取结果，照常检索</li>
+ * </ul>
+ * 预取结果同时写入检索结果缓存和问题向量缓存，即使最终没有直接用上，相同问题也能命中缓存。
+ *
+ * @author 忍
+ */
+@Component
+public class RetrievalPrefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(RetrievalPrefetcher.class);
+
+    /**
+     * 一次预取：规范化后的问题文本、规范化并排序后的标签和进行中的检索
+     */
+    private record Prefetch(String query, List<String> tags, CompletableFuture<RetrievedContext> result, long expiresAt) {
+    }
+
+    private final KnowledgeRetriever knowledgeRetriever;
+    private final KnowledgeBaseProgress knowledgeBaseProgress;
+    private final RagConfig.Prefetch config;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 会话id -> 最近一次预取，按写入顺序排列，超过上限时淘汰最早的会话
+    private final LinkedHashMap<String, Prefetch> sessions = new LinkedHashMap<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public RetrievalPrefetcher(KnowledgeRetriever knowledgeRetriever, KnowledgeBaseProgress knowledgeBaseProgress,
+                               RagConfig ragConfig) {
+        this.knowledgeRetriever = knowledgeRetriever;
+        this.knowledgeBaseProgress = knowledgeBaseProgress;
+        this.config = ragConfig.getPrefetch();
+    }
+
+    /**
+     * 根据语音识别的中间结果开始预取。文本过短、与上次预取相同或知识库尚无可用文档时忽略
+     *
+     * @return 是否开始了新的预取
+     */
+    public boolean prefetch(String sessionId, String partialQuery, List<String> tags) {
+        if (!config.isEnabled() || partialQuery == null || knowledgeBaseProgress.getIndexedChunks() == 0) {
+            return false;
+        }
+        String query = QueryEmbeddingCache.normalize(partialQuery);
+        if (query.length() < config.getMinChars()) {
+            return false;
+        }
+        List<String> sessionTags = normalizeTags(tags);
+        synchronized (this) {
+            Prefetch previous = sessions.get(sessionId);
+            if (previous != null && previous.query().equals(query) && previous.tags().equals(sessionTags)) {
+                return false;
+            }
+        }
+        CompletableFuture<RetrievedContext> result = CompletableFuture.supplyAsync(
+                () -> knowledgeRetriever.retrieveContext(partialQuery, sessionTags), executor);
+        result.whenComplete((context, error) -> {
+            if (error != null) {
+                log.warn("会话 {} 预取检索失败: {}", sessionId, error.getMessage());
+            }
+        });
+        Prefetch prefetch = new Prefetch(query, sessionTags, result,
+                System.currentTimeMillis() + config.getTtlSeconds() * 1000L);
+        synchronized (this) {
+            // 重新插入，使该会话排到最后
+            sessions.remove(sessionId);
+            sessions.put(sessionId, prefetch);
+            Iterator<Map.Entry<String, Prefetch>> iterator = sessions.entrySet().iterator();
+            while (sessions.size() > config.getMaxSessions() && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions++;
+            }
+        }
+        log.debug("会话 {} 开始预取检索: '{}'", sessionId, query);
+        return true;
+    }
+
+    /**
+     * 取出会话的预取结果。预取文本与最终问题匹配时返回检索结果（必要时等待其完成），否则返回 null，由调用方照常检索
+     */
+    public RetrievedContext take(String sessionId, String finalQuery, List<String> tags) {
+        if (!config.isEnabled() || sessionId == null) {
+            return null;
+        }
+        Prefetch prefetch;
+        synchronized (this) {
+            prefetch = sessions.remove(sessionId);
+        }
+        if (prefetch == null) {
+            return null;
+        }
+        String query = QueryEmbeddingCache.normalize(finalQuery);
+        List<String> sessionTags = normalizeTags(tags);
+        if (prefetch.expiresAt() <= System.currentTimeMillis()
+                || !prefetch.tags().equals(sessionTags)
+                || !covers(prefetch.query(), query)) {
+            recordMiss();
+            log.info("会话 {} 的预取结果与最终问题不匹配，照常检索。", sessionId);
+            return null;
+        }
+        try {
+            RetrievedContext context = prefetch.result().get(config.getMaxWaitMillis(), TimeUnit.MILLISECONDS);
+            recordHit();
+            log.info("会话 {} 使用预取的检索结果（预取文本 {} 字 / 最终问题 {} 字）。", sessionId,
+                    prefetch.query().length(), query.length());
+            return context;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            recordMiss();
+            return null;
+        } catch (TimeoutException | ExecutionException e) {
+            recordMiss();
+            log.info("会话 {} 的预取检索未能在 {}ms 内完成或失败，照常检索。", sessionId, config.getMaxWaitMillis());
+            return null;
+        }
+    }
+
+    /**
+     * 预取文本是否足以代表最终问题：两者相同，或预取文本是最终问题的前缀且长度占比不低于 min-coverage
+     */
+    private boolean covers(String prefetched, String finalQuery) {
+        if (prefetched.equals(finalQuery)) {
+            return true;
+        }
+        return finalQuery.startsWith(prefetched)
+                && prefetched.length() >= finalQuery.length() * config.getMinCoverage();
+    }
+
+    /**
+     * 与检索结果缓存的键一致：规范化、去重后排序，顺序或大小写不同的同一组标签视为相同
+     */
+    static List<String> normalizeTags(List<String> tags) {
+        return tags == null ? List.of() : tags.stream()
+                .map(TagIndex::normalize)
+                .filter(tag -> !tag.isEmpty())
+                .distinct()
+                .sorted()
+                .toList();
+    }
+
+    private synchronized void recordHit() {
+        hits++;
+    }
+
+    private synchronized void recordMiss() {
+        misses++;
+    }
+
+    /**
+     * 知识库变化后，进行中或已完成的预取结果可能基于旧索引，全部丢弃
+     */
+    @EventListener
+    public synchronized void onKnowledgeBaseChanged(KnowledgeBaseChangedEvent event) {
+        evictions += sessions.size();
+        sessions.clear();
+    }
+
+    public synchronized CacheStats stats() {
+        long sizeBytes = 0;
+        for (Map.Entry<String, Prefetch> entry : sessions.entrySet()) {
+            CompletableFuture<RetrievedContext> result = entry.getValue().result();
+            int contextLength = result.isDone() && !result.isCompletedExceptionally() ? result.join().context().length() : 0;
+            sizeBytes += 2L * (entry.getKey().length() + entry.getValue().query().length() + contextLength);
+        }
+        return CacheStats.of(hits, misses, evictions, sessions.size(), sizeBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
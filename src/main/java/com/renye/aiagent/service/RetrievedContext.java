@@ -0,0 +1,15 @@
+package com.renye.aiagent.service;
+
+import java.util.List;
+
+/**
+ * 一次知识库检索的结果：排好序的文档块id，以及据此渲染好的"相关资料"上下文文本
+ *
+ * @param documentIds 按相关度排序的文档块id
+ * @param context     拼接到系统提示词中的背景知识，无结果时为空串
+ * @author 忍
+ */
+public record RetrievedContext(List<String> documentIds, String context) {
+
+    public static final RetrievedContext EMPTY = new RetrievedContext(List.of(), "");
+}
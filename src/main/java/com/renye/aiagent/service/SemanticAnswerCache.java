@@ -0,0 +1,191 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.dto.CacheStats;
+import com.renye.aiagent.vectorstore.VectorMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 面试开场白等高度重复对话的语义回答缓存（默认关闭）。
+ * <p>
+ * 大量会话以几乎相同的几轮对话开始（问好、"请做一下自我介绍"），每次都要完整调用一次对话模型。
+ * 这里按 (指纹, 最后一条用户消息的向量) 缓存模型的完整回答：指纹由对话模型、焦点标签集合以及系统提示词哈希（默认包含，可关闭）组成，
+ * 指纹相同且用户消息向量的余弦相似度不低于阈值即视为命中，把缓存的回答按真实的节奏拆成小段重放为流式响应。
+ * 只对会话的前 max-user-turns 轮生效，之后的回答依赖对话历史，不适合复用。
+ *
+ * @author 忍
+ */
+@Component
+public class SemanticAnswerCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    private record Entry(String fingerprint, float[] embedding, String answer, long expiresAt) {
+    }
+
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final RagConfig.AnswerCache config;
+    private final String chatModelName;
+
+    // 指纹 + 规范化问题 -> 回答，access-order 即 LRU
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SemanticAnswerCache(QueryEmbeddingCache queryEmbeddingCache, RagConfig ragConfig,
+                               @Value("${spring.ai.dashscope.chat.options.model:qwen-turbo}") String chatModelName) {
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.config = ragConfig.getAnswerCache();
+        this.chatModelName = chatModelName;
+    }
+
+    /**
+     * 本轮对话是否可以使用缓存
+     *
+     * @param userTurns 包括当前消息在内的用户消息条数
+     */
+    public boolean isApplicable(int userTurns) {
+        return config.isEnabled() && userTurns <= config.getMaxUserTurns();
+    }
+
+    /**
+     * 缓存命中的一次查找结果，未命中时 answer 为 null；embedding 供写入时复用
+     */
+    public record Lookup(String key, String fingerprint, float[] embedding, String answer) {
+
+        public boolean hit() {
+            return answer != null;
+        }
+    }
+
+    /**
+     * 查找语义相近的已缓存回答，计算问题向量失败时返回 null（本轮不使用缓存）
+     */
+    public Lookup lookup(String systemPrompt, List<String> tags, String userQuery) {
+        String fingerprint = fingerprint(systemPrompt, tags);
+        String key = fingerprint + '\0' + QueryEmbeddingCache.normalize(userQuery);
+        float[] embedding;
+        try {
+            embedding = VectorMath.normalize(queryEmbeddingCache.embed(userQuery));
+        } catch (RuntimeException e) {
+            log.warn("回答缓存: 计算问题向量失败，本轮不使用缓存: {}", e.getMessage());
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry best = entries.get(key);
+            float bestSimilarity = best != null && best.expiresAt() > now ? 1f : -1f;
+            if (bestSimilarity < 0) {
+                best = null;
+                for (Entry entry : entries.values()) {
+                    if (entry.expiresAt() <= now || !entry.fingerprint().equals(fingerprint)) {
+                        continue;
+                    }
+                    float similarity = VectorMath.dot(embedding, entry.embedding());
+                    if (similarity > bestSimilarity) {
+                        best = entry;
+                        bestSimilarity = similarity;
+                    }
+                }
+            }
+            if (best != null && bestSimilarity >= config.getSimilarityThreshold()) {
+                hits++;
+                log.info("命中语义回答缓存: 相似度 {}，回答 {} 字", String.format("%.3f", bestSimilarity), best.answer().length());
+                return new Lookup(key, fingerprint, embedding, best.answer());
+            }
+            misses++;
+        }
+        return new Lookup(key, fingerprint, embedding, null);
+    }
+
+    /**
+     * 写入一次完整生成的回答（只应在模型正常结束时调用）
+     */
+    public synchronized void put(Lookup lookup, String answer) {
+        if (answer == null || answer.isBlank()) {
+            return;
+        }
+        entries.put(lookup.key(), new Entry(lookup.fingerprint(), lookup.embedding(), answer,
+                System.currentTimeMillis() + config.getTtlSeconds() * 1000L));
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > config.getMaxEntries() && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * 把缓存的回答按固定字数切段、按固定间隔重放为流式响应，最后一段带 STOP 结束原因，与模型流式输出的形态一致
+     */
+    public Flux<ChatResponse> replay(String answer) {
+        int step = Math.max(1, config.getReplayCharsPerChunk());
+        List<String> pieces = new ArrayList<>(answer.length() / step + 1);
+        int start = 0;
+        while (start < answer.length()) {
+            int end = Math.min(answer.length(), start + step);
+            // 不拆开代理对
+            if (end < answer.length() && Character.isHighSurrogate(answer.charAt(end - 1))) {
+                end++;
+            }
+            pieces.add(answer.substring(start, end));
+            start = end;
+        }
+        int last = pieces.size() - 1;
+        return Flux.range(0, pieces.size())
+                .delayElements(Duration.ofMillis(config.getReplayIntervalMillis()))
+                .map(index -> {
+                    AssistantMessage message = new AssistantMessage(pieces.get(index));
+                    Generation generation = index == last
+                            ? new Generation(message, ChatGenerationMetadata.from("STOP", null))
+                            : new Generation(message);
+                    return new ChatResponse(List.of(generation));
+                });
+    }
+
+    private String fingerprint(String systemPrompt, List<String> tags) {
+        StringBuilder source = new StringBuilder(chatModelName).append('\0');
+        if (tags != null) {
+            source.append(String.join(",", new TreeSet<>(tags)));
+        }
+        if (config.isIncludeSystemPrompt() && systemPrompt != null) {
+            source.append('\0').append(systemPrompt);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized CacheStats stats() {
+        long sizeBytes = 0;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            sizeBytes += 2L * (entry.getKey().length() + entry.getValue().answer().length())
+                    + (long) Float.BYTES * entry.getValue().embedding().length;
+        }
+        return CacheStats.of(hits, misses, evictions, entries.size(), sizeBytes);
+    }
+}
@@ -0,0 +1,80 @@
+package com.renye.aiagent.util;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.renye.aiagent.dto.openai.OpenAIUsage;
+
+/**
+ * 流式响应数据块（chat.completion.chunk）的专用序列化器，每个流一个实例。
+ * <p>
+ * 每个 token 都要输出一个数据块，逐个构造 OpenAIDelta / OpenAIStreamChoice / List / OpenAIChatCompletionChunk
+ * 再交给 ObjectMapper 反射序列化，高并发时 CPU 和垃圾都主要花在这里。数据块中 id、object、created、model
+ * 在一个流内不变，这里在构造时一次性渲染成前缀，之后每个 token 只需转义 delta 内容并追加到复用的缓冲区。
+ * <p>
+ * 输出与 NON_NULL 配置的 ObjectMapper 序列化 {@link com.renye.aiagent.dto.openai.OpenAIChatCompletionChunk}
+ * 的结果逐字节一致：字段顺序 id、object、created、model、choices[index、delta{role、content}、finish_reason]、usage，
+ * 值为 null 的字段省略（system_fingerprint 始终为 null）。非线程安全，同一个流的数据块本身就是串行产生的。
+ *
+ * @author 忍
+ */
+public class OpenAIChunkWriter {
+
+    private static final JsonStringEncoder ENCODER = JsonStringEncoder.getInstance();
+
+    // {"id":"...","object":"chat.completion.chunk","created":...,"model":"...","choices":[{"index":0,"delta":{
+    private final String prefix;
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    public OpenAIChunkWriter(String streamId, long createdTimestamp, String modelName) {
+        StringBuilder prefixBuilder = new StringBuilder(128).append("{\"id\":");
+        appendQuoted(prefixBuilder, streamId);
+        prefixBuilder.append(",\"object\":\"chat.completion.chunk\",\"created\":").append(createdTimestamp);
+        if (modelName != null) {
+            prefixBuilder.append(",\"model\":");
+            appendQuoted(prefixBuilder, modelName);
+        }
+        this.prefix = prefixBuilder.append(",\"choices\":[{\"index\":0,\"delta\":{").toString();
+    }
+
+    /**
+     * 渲染一个数据块
+     *
+     * @param role         delta.role，为 null 时省略
+     * @param content      delta.content，为 null 时省略
+     * @param finishReason 为 null 时省略
+     * @param usage        为 null 时省略
+     */
+    public String write(String role, String content, String finishReason, OpenAIUsage usage) {
+        StringBuilder out = buffer;
+        out.setLength(0);
+        out.append(prefix);
+        if (role != null) {
+            out.append("\"role\":");
+            appendQuoted(out, role);
+        }
+        if (content != null) {
+            if (role != null) {
+                out.append(',');
+            }
+            out.append("\"content\":");
+            appendQuoted(out, content);
+        }
+        out.append('}');
+        if (finishReason != null) {
+            out.append(",\"finish_reason\":");
+            appendQuoted(out, finishReason);
+        }
+        out.append("}]");
+        if (usage != null) {
+            out.append(",\"usage\":{\"prompt_tokens\":").append(usage.promptTokens)
+                    .append(",\"completion_tokens\":").append(usage.completionTokens)
+                    .append(",\"total_tokens\":").append(usage.totalTokens).append('}');
+        }
+        return out.append('}').toString();
+    }
+
+    private static void appendQuoted(StringBuilder out, String value) {
+        out.append('"');
+        ENCODER.quoteAsString(value, out);
+        out.append('"');
+    }
+}
@@ -1,9 +1,6 @@
 package com.renye.aiagent.util;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.renye.aiagent.dto.openai.*; // 导入所有相关的OpenAI DTO
+import com.renye.aiagent.dto.openai.OpenAIUsage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.model.ChatResponse;
@@ -14,8 +11,6 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.Instant;
-import java.util.Collections;
-import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -24,28 +19,25 @@ import java.util.concurrent.atomic.AtomicReference;
 public class OpenAIStreamProcessor {
 
     private static final Logger log = LoggerFactory.getLogger(OpenAIStreamProcessor.class);
-    private final ObjectMapper objectMapper;
-
     private final String modelName;
     private final boolean includeUsage;
 
     private final String streamId;
     private final long createdTimestamp;
+    private final OpenAIChunkWriter chunkWriter;
     private final AtomicBoolean isFirstContentChunk = new AtomicBoolean(true);
     private final AtomicReference<Usage> accumulatedUsage = new AtomicReference<>(null); // Spring AI Usage
 
     private static final Set<String> VALID_OPENAI_FINISH_REASONS =
             Set.of("stop", "length", "tool_calls", "content_filter", "function_call");
 
-    public OpenAIStreamProcessor(String modelName, boolean includeUsage, ObjectMapper objectMapper) {
+    public OpenAIStreamProcessor(String modelName, boolean includeUsage) {
         this.modelName = modelName;
         this.includeUsage = includeUsage;
-        // 为每个流处理器实例配置独立的ObjectMapper，或使用注入的并注意线程安全
-        // NON_NULL 对于 delta 对象很重要，避免发送如 delta: {"role":null, "content":null}
-        this.objectMapper = objectMapper.copy().setSerializationInclusion(JsonInclude.Include.NON_NULL);
 
         this.streamId = "chatcmpl-" + UUID.randomUUID().toString();
         this.createdTimestamp = Instant.now().getEpochSecond();
+        this.chunkWriter = new OpenAIChunkWriter(this.streamId, this.createdTimestamp, this.modelName);
     }
 
     /**
@@ -63,11 +55,11 @@ public class OpenAIStreamProcessor {
      * 返回 null 如果此块不应作为数据发送 (例如，完全空的中间块)。
      */
     private String convertToOpenAICunkPayloadString(ChatResponse springAiChatResponseChunk) {
-        OpenAIDelta delta = new OpenAIDelta();
+        String deltaRole = null;
+        String deltaContent = null;
         String openAiApiFinishReason = null;
         String chunkContent = "";
         OpenAIUsage usageForThisChunk = null;
-        String systemFingerprint = null; // 可从 springAiChatResponseChunk.getMetadata() 提取
 
         Generation generation = (springAiChatResponseChunk.getResults() != null && !springAiChatResponseChunk.getResults().isEmpty())
                 ? springAiChatResponseChunk.getResults().get(0)
@@ -97,17 +89,16 @@ public class OpenAIStreamProcessor {
         boolean hasContent = (chunkContent != null && !chunkContent.isEmpty());
 
         if (this.isFirstContentChunk.getAndSet(false)) { // 仅对第一个被此方法处理的块为true
-            delta.role = "assistant";
+            deltaRole = "assistant";
             if (!hasContent && openAiApiFinishReason == null) { // 第一个块，无内容，也未结束
-                delta.content = ""; // OpenAI期望即使内容为空，如果role出现，content也应出现（通常为空字符串）
+                deltaContent = ""; // OpenAI期望即使内容为空，如果role出现，content也应出现（通常为空字符串）
             }
         }
 
         if (hasContent) {
-            delta.content = chunkContent;
-        } else if (openAiApiFinishReason != null && delta.role == null && delta.content == null) {
-            // 如果是结束块，但没有内容，且role和content都未设置（说明不是第一个块），则delta为空对象
-            // Jackson NON_NULL配置会确保delta序列化为 {}
+            deltaContent = chunkContent;
+        } else if (openAiApiFinishReason != null && deltaRole == null && deltaContent == null) {
+            // 如果是结束块，但没有内容，且role和content都未设置（说明不是第一个块），则delta为空对象 {}
         }
 
         // 只有当这是真正的结束块 (openAiApiFinishReason非null) 并且客户端请求了usage时，才添加usage
@@ -120,25 +111,11 @@ public class OpenAIStreamProcessor {
         }
 
         // 如果delta为空 (role和content都为null) 并且不是结束块，则此块无意义，可以不发送
-        if (delta.role == null && delta.content == null && openAiApiFinishReason == null && usageForThisChunk == null) {
+        if (deltaRole == null && deltaContent == null && openAiApiFinishReason == null && usageForThisChunk == null) {
             log.trace("跳过发送空的中间数据块。Stream ID: {}", this.streamId);
             return null; // mapNotNull 会过滤掉这个
         }
 
-        OpenAIStreamChoice streamChoice = new OpenAIStreamChoice(0, delta, openAiApiFinishReason);
-        OpenAIChatCompletionChunk chunk = new OpenAIChatCompletionChunk(
-                this.streamId,
-                this.createdTimestamp,
-                this.modelName,
-                Collections.singletonList(streamChoice), // OpenAI通常只有一个choice，除非n>1
-                systemFingerprint, // 可从元数据获取
-                usageForThisChunk);
-
-        try {
-            return objectMapper.writeValueAsString(chunk);
-        } catch (JsonProcessingException e) {
-            log.error("序列化流式OpenAI数据块失败 for Stream ID {}: {}", this.streamId, e.getMessage(), e);
-            throw new RuntimeException("Failed to serialize stream chunk", e); // 抛出让Flux的onError处理
-        }
+        return chunkWriter.write(deltaRole, deltaContent, openAiApiFinishReason, usageForThisChunk);
     }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.renye.aiagent.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 面向中英混排技术文本的轻量分词，不依赖词典。
+ * <p>
+ * 连续的英文字母/数字（允许中间出现下划线、结尾的 + #，如 "ConcurrentHashMap"、"MAX_VALUE"、"c++"）作为一个词，统一小写，
+ * "java.util.HashMap" 这类限定名按 . 拆开，便于只写类名的问题也能命中；
+ * 连续的汉字切成单字加重叠的二元组（"线程安全" -> 线 / 线程 / 程 / 程安 / 安 / 安全 / 全）。
+ * 二元组不需要词典即可覆盖中文术语，代价是会产生少量无意义的组合，BM25 的 idf 会把它们的权重压低；
+ * 单字保证只有一个汉字的查询词（如"锁"）也能命中长句中的该字，常见单字的 idf 很低，不会干扰二元组的排序。
+ *
+ * @author 忍
+ */
+public final class TextTokenizer {
+
+    private TextTokenizer() {
+    }
+
+    public static List<String> tokenize(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isWordChar(c)) {
+                int start = i;
+                while (i < length && (isWordChar(text.charAt(i))
+                        || (isWordJoiner(text.charAt(i)) && i + 1 < length && isWordChar(text.charAt(i + 1))))) {
+                    i++;
+                }
+                // c++、c# 这类结尾符号也算词的一部分
+                while (i < length && (text.charAt(i) == '+' || text.charAt(i) == '#')) {
+                    i++;
+                }
+                tokens.add(text.subSequence(start, i).toString().toLowerCase(Locale.ROOT));
+            } else if (Character.isIdeographic(c)) {
+                int start = i;
+                while (i < length && Character.isIdeographic(text.charAt(i))) {
+                    i++;
+                }
+                for (int j = start; j < i; j++) {
+                    tokens.add(String.valueOf(text.charAt(j)));
+                    if (j + 1 < i) {
+                        tokens.add(text.subSequence(j, j + 2).toString());
+                    }
+                }
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isWordChar(char c) {
+        return c < 128 && Character.isLetterOrDigit(c);
+    }
+
+    private static boolean isWordJoiner(char c) {
+        return c == '_';
+    }
+}
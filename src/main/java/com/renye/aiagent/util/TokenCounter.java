@@ -0,0 +1,40 @@
+package com.renye.aiagent.util;
+
+/**
+ * 轻量的 token 数估算，不依赖具体模型的分词器。
+ * <p>
+ * 通义系列模型对中文大致一个汉字一个 token，英文/数字大致 4 个字符一个 token。
+ * 用于入库分批、分块和 prompt 预算等只需要数量级正确的场景。
+ *
+ * @author 忍
+ */
+public final class TokenCounter {
+
+    private TokenCounter() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                cjk++;
+            } else if (!Character.isWhitespace(c)) {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    public static boolean isCjk(char c) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+        return block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || block == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION
+                || block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS;
+    }
+}
@@ -0,0 +1,251 @@
+package com.renye.aiagent.vectorstore;
+
+import com.renye.aiagent.util.TextTokenizer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * 进程内的 BM25 词法索引，与向量检索互补：精确的技术名词（ConcurrentHashMap、volatile）在向量空间里容易被"语义相近"的内容淹没，
+ * 词法检索能直接命中；并且检索不需要调用 embedding 接口，可作为 embedding 不可用时的降级方案。
+ * <p>
+ * 分词见 {@link TextTokenizer}。倒排表按文档编号递增追加，存储为 (文档编号差值, 词频) 的 varint 字节序列，
+ * 大多数词项每条 posting 只占 2 个字节。标签过滤复用 {@link TagIndex}。
+ * <p>
+ * 索引只保存文档id，命中后通过 documentResolver 到 VectorStore 取文档，正文和元数据不在这里再存一份；
+ * 只有 VectorStore 不是 {@link KnowledgeVectorStore}、不支持按id取文档时才由索引自己保存文档。
+ * 同一id重复写入时旧文档打墓碑，文档数和平均长度只统计未删除的文档。
+ *
+ * @author 忍
+ */
+public class Bm25Index {
+
+    // 检索结果元数据中附带的 BM25 分数
+    public static final String SCORE_METADATA_KEY = "bm25_score";
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    /**
+     * 单个词项的倒排表：varint 编码的 (docGap, tf) 序列
+     */
+    private static final class Postings {
+        private byte[] bytes = new byte[8];
+        private int length;
+        private int lastDoc = -1;
+        private int docFrequency;
+
+        void add(int doc, int tf) {
+            writeVarint(doc - lastDoc);
+            writeVarint(tf);
+            lastDoc = doc;
+            docFrequency++;
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+    }
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    // 文档编号 -> 文档id
+    private final List<String> ids = new ArrayList<>();
+    private int[] documentLengths = new int[64];
+    // 未删除文档的词项总数
+    private long totalLength;
+    private final Map<String, Integer> idToDoc = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private final TagIndex tagIndex = new TagIndex();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Function<String, Document> documentResolver;
+    // 仅在没有 documentResolver 时由索引自己保存文档
+    private final Map<String, Document> ownDocuments;
+
+    /**
+     * 自己保存文档，用于不支持按id取文档的 VectorStore
+     */
+    public Bm25Index() {
+        this.ownDocuments = new HashMap<>();
+        this.documentResolver = ownDocuments::get;
+    }
+
+    /**
+     * @param documentResolver 按id取文档，通常为 {@link KnowledgeVectorStore#getById}；文档已不存在时返回 null
+     */
+    public Bm25Index(Function<String, Document> documentResolver) {
+        this.ownDocuments = null;
+        this.documentResolver = documentResolver;
+    }
+
+    public void add(List<Document> documentsToAdd) {
+        lock.writeLock().lock();
+        try {
+            for (Document document : documentsToAdd) {
+                Integer previous = idToDoc.get(document.getId());
+                if (previous != null) {
+                    deleted.set(previous);
+                    totalLength -= documentLengths[previous];
+                }
+                int doc = ids.size();
+                ids.add(document.getId());
+                idToDoc.put(document.getId(), doc);
+                if (ownDocuments != null) {
+                    ownDocuments.put(document.getId(), document);
+                }
+                tagIndex.add(doc, document.getMetadata());
+
+                List<String> tokens = TextTokenizer.tokenize(document.getContent());
+                Map<String, Integer> termFrequencies = new LinkedHashMap<>();
+                for (String token : tokens) {
+                    termFrequencies.merge(token, 1, Integer::sum);
+                }
+                for (Map.Entry<String, Integer> term : termFrequencies.entrySet()) {
+                    postings.computeIfAbsent(term.getKey(), k -> new Postings()).add(doc, term.getValue());
+                }
+                if (doc == documentLengths.length) {
+                    documentLengths = Arrays.copyOf(documentLengths, documentLengths.length * 2);
+                }
+                documentLengths[doc] = tokens.size();
+                totalLength += tokens.size();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 检索
+     *
+     * @param filter 标签过滤表达式，可为 null；只支持 {@link TagIndex#resolve} 能解析的标签表达式，其他表达式忽略
+     * @return 按 BM25 分数从高到低排序的文档，元数据中附带 bm25_score；没有任何词项命中时返回空列表
+     */
+    public List<Document> search(String query, int topK, Filter.Expression filter) {
+        List<ScoredNode> hits;
+        List<String> hitIds;
+        lock.readLock().lock();
+        try {
+            // idf 和平均长度只按未删除的文档计算；打分数组仍按全部文档编号开
+            int documentCount = idToDoc.size();
+            if (documentCount == 0) {
+                return List.of();
+            }
+            BitSet candidates = filter != null ? tagIndex.resolve(filter) : null;
+            float averageLength = Math.max(1f, (float) totalLength / documentCount);
+            float[] scores = new float[ids.size()];
+            BitSet matched = new BitSet(ids.size());
+            for (String term : TextTokenizer.tokenize(query).stream().distinct().toList()) {
+                Postings termPostings = postings.get(term);
+                if (termPostings == null) {
+                    continue;
+                }
+                // 词项的文档频率没有扣除墓碑（需要旧文档的词项），同一id重复写入很少见，这里只保证不超过文档数
+                int docFrequency = Math.min(termPostings.docFrequency, documentCount);
+                float idf = (float) Math.log(1 + (documentCount - docFrequency + 0.5) / (docFrequency + 0.5));
+                byte[] bytes = termPostings.bytes;
+                int position = 0;
+                int doc = -1;
+                while (position < termPostings.length) {
+                    // 内联 varint 解码：docGap 和 tf 各一个
+                    int gap = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = bytes[position++];
+                        gap |= (b & 0x7F) << shift;
+                        if (b >= 0) {
+                            break;
+                        }
+                    }
+                    int tf = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = bytes[position++];
+                        tf |= (b & 0x7F) << shift;
+                        if (b >= 0) {
+                            break;
+                        }
+                    }
+                    doc += gap;
+                    if (candidates != null && !candidates.get(doc)) {
+                        continue;
+                    }
+                    float norm = K1 * (1 - B + B * documentLengths[doc] / averageLength);
+                    scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+                    matched.set(doc);
+                }
+            }
+            matched.andNot(deleted);
+            TopK best = new TopK(topK);
+            for (int doc = matched.nextSetBit(0); doc >= 0; doc = matched.nextSetBit(doc + 1)) {
+                best.offer(doc, scores[doc]);
+            }
+            hits = best.sorted();
+            hitIds = new ArrayList<>(hits.size());
+            for (ScoredNode hit : hits) {
+                hitIds.add(ids.get(hit.node()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 在索引的锁外取文档，不与 VectorStore 的锁嵌套
+        List<Document> results = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            Document source = documentResolver.apply(hitIds.get(i));
+            if (source == null) {
+                continue;
+            }
+            Map<String, Object> metadata = new HashMap<>(source.getMetadata());
+            metadata.put(SCORE_METADATA_KEY, hits.get(i).score());
+            results.add(new Document(source.getId(), source.getContent(), metadata));
+        }
+        return results;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idToDoc.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 倒排表编码后的总字节数
+     */
+    public long postingsBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Postings termPostings : postings.values()) {
+                bytes += termPostings.length;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.renye.aiagent.vectorstore;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按列存放的文档数据，节点编号即行号。
+ * <p>
+ * 每个文档块原本各持有一个 Document 和一个 HashMap 元数据，上万个文档块就是上万组小对象和重复的字符串
+ * （sourceFile、doc_tags 在同一文件的所有块中都相同）。这里把元数据按 key 拆成列：
+ * Integer 值（页码、块序号）存进 int[]，String 值（文件名、标签）做字典编码后存进 int[]，
+ * 其他类型或类型不一致的值放进稀疏的补充表。需要 Document 时按行重新组装。
+ * 文档id和正文仍是堆上的字符串，这里减少的是对象个数和重复字符串，不是正文本身的占用。
+ * 非线程安全，由 HnswVectorStore 的读写锁保护。
+ *
+ * @author 忍
+ */
+final class DocumentColumns {
+
+    private final List<String> ids = new ArrayList<>();
+    private final List<String> contents = new ArrayList<>();
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    // 行号 -> 无法放进列的元数据
+    private final Map<Integer, Map<String, Object>> extras = new HashMap<>();
+
+    /**
+     * 追加一个文档，返回其行号
+     */
+    int add(Document document) {
+        int row = ids.size();
+        ids.add(document.getId());
+        contents.add(document.getContent());
+        for (Map.Entry<String, Object> entry : document.getMetadata().entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+            Column column = columns.computeIfAbsent(entry.getKey(), key -> Column.forValue(value));
+            if (column == null || !column.set(row, value)) {
+                extras.computeIfAbsent(row, r -> new HashMap<>()).put(entry.getKey(), value);
+            }
+        }
+        return row;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * 组装该行的元数据（新建的可变 Map）
+     */
+    Map<String, Object> metadata(int row) {
+        Map<String, Object> metadata = new HashMap<>();
+        for (Map.Entry<String, Column> entry : columns.entrySet()) {
+            Object value = entry.getValue().get(row);
+            if (value != null) {
+                metadata.put(entry.getKey(), value);
+            }
+        }
+        Map<String, Object> extra = extras.get(row);
+        if (extra != null) {
+            metadata.putAll(extra);
+        }
+        return metadata;
+    }
+
+    Document document(int row) {
+        return new Document(ids.get(row), contents.get(row), metadata(row));
+    }
+
+    /**
+     * 单个元数据 key 的一列
+     */
+    private interface Column {
+
+        /**
+         * 按第一个出现的值决定列类型；不适合列存的类型返回 null，全部进入补充表
+         */
+        static Column forValue(Object value) {
+            if (value instanceof Integer) {
+                return new IntColumn();
+            }
+            if (value instanceof String) {
+                return new StringColumn();
+            }
+            return null;
+        }
+
+        /**
+         * 写入一行，值的类型与列不一致时返回 false
+         */
+        boolean set(int row, Object value);
+
+        Object get(int row);
+    }
+
+    private static final class IntColumn implements Column {
+
+        private int[] values = new int[256];
+        private final BitSet present = new BitSet();
+
+        @Override
+        public boolean set(int row, Object value) {
+            if (!(value instanceof Integer number)) {
+                return false;
+            }
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+            }
+            values[row] = number;
+            present.set(row);
+            return true;
+        }
+
+        @Override
+        public Object get(int row) {
+            return present.get(row) ? values[row] : null;
+        }
+    }
+
+    private static final class StringColumn implements Column {
+
+        // -1 表示该行没有这个 key
+        private int[] codes = filled(new int[256], 0);
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> codeOf = new HashMap<>();
+
+        @Override
+        public boolean set(int row, Object value) {
+            if (!(value instanceof String text)) {
+                return false;
+            }
+            if (row >= codes.length) {
+                int previous = codes.length;
+                codes = filled(Arrays.copyOf(codes, Math.max(row + 1, previous * 2)), previous);
+            }
+            codes[row] = codeOf.computeIfAbsent(text, t -> {
+                dictionary.add(t);
+                return dictionary.size() - 1;
+            });
+            return true;
+        }
+
+        @Override
+        public Object get(int row) {
+            int code = row < codes.length ? codes[row] : -1;
+            return code < 0 ? null : dictionary.get(code);
+        }
+
+        private static int[] filled(int[] array, int from) {
+            Arrays.fill(array, from, array.length, -1);
+            return array;
+        }
+    }
+}
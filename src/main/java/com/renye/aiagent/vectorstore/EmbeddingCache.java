@@ -0,0 +1,162 @@
+package com.renye.aiagent.vectorstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * 持久化的文本向量缓存，key 为 SHA-256(模型名 + 文本)。
+ * <p>
+ * 存储为追加写日志，每条记录：32 字节 key + int 维度 + float[维度]。
+ * 打开时顺序扫描日志，在内存中重建 key -> 文件偏移 的索引，向量本身按需从文件读取，不常驻堆内存。
+ * 日志尾部若因进程中断而残缺，会在打开时截断。
+ *
+ * @author 忍
+ */
+public class EmbeddingCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingCache.class);
+
+    private static final int KEY_BYTES = 32;
+    private static final int HEADER_BYTES = KEY_BYTES + Integer.BYTES;
+
+    private final FileChannel channel;
+    // key(hex) -> 记录起始偏移
+    private final Map<String, Long> index = new HashMap<>();
+    private long writePosition;
+    private int hits;
+    private int misses;
+
+    public EmbeddingCache(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        rebuildIndex();
+    }
+
+    /**
+     * 查询缓存，未命中返回 null
+     */
+    public synchronized float[] get(String model, String text) {
+        Long offset = index.get(key(model, text));
+        if (offset == null) {
+            misses++;
+            return null;
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            readFully(header, offset + KEY_BYTES);
+            int dimension = header.flip().getInt();
+            ByteBuffer body = ByteBuffer.allocate(dimension * Float.BYTES);
+            readFully(body, offset + HEADER_BYTES);
+            float[] vector = new float[dimension];
+            body.flip().asFloatBuffer().get(vector);
+            hits++;
+            return vector;
+        } catch (IOException e) {
+            log.warn("读取embedding缓存失败，按未命中处理: {}", e.getMessage());
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * 追加一条缓存记录，已存在的 key 不会重复写入
+     */
+    public synchronized void put(String model, String text, float[] vector) throws IOException {
+        String hexKey = key(model, text);
+        if (index.containsKey(hexKey)) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + vector.length * Float.BYTES);
+        record.put(HexFormat.of().parseHex(hexKey));
+        record.putInt(vector.length);
+        record.asFloatBuffer().put(vector);
+        record.position(record.capacity()).flip();
+        long offset = writePosition;
+        while (record.hasRemaining()) {
+            writePosition += channel.write(record, writePosition);
+        }
+        index.put(hexKey, offset);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    private void rebuildIndex() throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            byte[] key = new byte[KEY_BYTES];
+            header.get(key);
+            int dimension = header.getInt();
+            long recordEnd = position + HEADER_BYTES + (long) dimension * Float.BYTES;
+            if (dimension <= 0 || recordEnd > fileSize) {
+                break;
+            }
+            index.put(HexFormat.of().formatHex(key), position);
+            position = recordEnd;
+        }
+        if (position < fileSize) {
+            log.warn("embedding缓存日志尾部有 {} 字节残缺记录，已截断。", fileSize - position);
+            channel.truncate(position);
+        }
+        writePosition = position;
+        log.info("embedding缓存已打开，共 {} 条记录。", index.size());
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("embedding缓存文件意外结束");
+            }
+        }
+    }
+
+    private static String key(String model, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JVM 不支持 SHA-256", e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.renye.aiagent.vectorstore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 全精度的堆内向量存储，每个节点一个 float[]
+ *
+ * @author 忍
+ */
+public class FloatVectorStorage implements VectorStorage {
+
+    private final List<float[]> vectors = new ArrayList<>();
+
+    @Override
+    public void add(float[] normalizedVector) {
+        vectors.add(normalizedVector);
+    }
+
+    @Override
+    public int size() {
+        return vectors.size();
+    }
+
+    @Override
+    public float similarity(int a, int b) {
+        return VectorMath.dot(vectors.get(a), vectors.get(b));
+    }
+
+    @Override
+    public HnswIndex.QuerySimilarity query(float[] normalizedQuery) {
+        return node -> VectorMath.dot(normalizedQuery, vectors.get(node));
+    }
+
+    @Override
+    public float exactSimilarity(float[] normalizedQuery, int node) {
+        return VectorMath.dot(normalizedQuery, vectors.get(node));
+    }
+
+    @Override
+    public float[] vector(int node) {
+        return vectors.get(node);
+    }
+
+    @Override
+    public boolean isApproximate() {
+        return false;
+    }
+
+    @Override
+    public long heapBytes() {
+        long bytes = 0;
+        for (float[] vector : vectors) {
+            // 数组对象头约 16 字节
+            bytes += 16 + (long) Float.BYTES * vector.length;
+        }
+        return bytes;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return 0;
+    }
+}
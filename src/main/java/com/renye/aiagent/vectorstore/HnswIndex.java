@@ -0,0 +1,299 @@
+package com.renye.aiagent.vectorstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW (Hierarchical Navigable Small World) 近似最近邻图索引。
+ * <p>
+ * 索引本身不保存向量，只保存图结构；节点之间、查询与节点之间的相似度由调用方提供，
+ * 这样底层向量存储方式（堆内 float[]、量化、堆外等）可以独立演进。
+ * 节点编号必须从 0 开始连续插入。
+ *
+ * @author 忍
+ */
+public class HnswIndex {
+
+    /**
+     * 两个已入库节点之间的相似度，值越大越相似
+     */
+    @FunctionalInterface
+    public interface NodeSimilarity {
+        float between(int a, int b);
+    }
+
+    /**
+     * 查询向量与某个节点之间的相似度，值越大越相似
+     */
+    @FunctionalInterface
+    public interface QuerySimilarity {
+        float to(int node);
+    }
+
+    private static final Comparator<ScoredNode> BEST_FIRST = (a, b) -> Float.compare(b.score(), a.score());
+    private static final Comparator<ScoredNode> WORST_FIRST = (a, b) -> Float.compare(a.score(), b.score());
+
+    // 每个节点在非0层的最大邻居数
+    private final int m;
+    // 第0层的最大邻居数，按论文建议取 2*M
+    private final int maxM0;
+    private final int efConstruction;
+    // 层数生成的归一化因子 mL = 1/ln(M)
+    private final double levelMultiplier;
+    private final NodeSimilarity similarity;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // links[node][level] 为该节点在该层的邻居列表（长度即邻居数，修改时整体替换）
+    private int[][][] links = new int[1024][][];
+    private int size = 0;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int m, int efConstruction, NodeSimilarity similarity) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW 参数 M 必须 >= 2，当前: " + m);
+        }
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.similarity = similarity;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 插入一个节点，node 必须等于当前 size（即按顺序追加）
+     */
+    public void insert(int node) {
+        lock.writeLock().lock();
+        try {
+            if (node != size) {
+                throw new IllegalArgumentException("HNSW 节点必须按顺序插入，期望 " + size + "，实际 " + node);
+            }
+            int level = randomLevel();
+            ensureCapacity(node + 1);
+            int[][] nodeLinks = new int[level + 1][];
+            Arrays.fill(nodeLinks, new int[0]);
+            links[node] = nodeLinks;
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+
+            QuerySimilarity query = other -> similarity.between(node, other);
+            int current = entryPoint;
+            float currentScore = query.to(current);
+            // 在高于新节点层数的层上贪心下降
+            for (int l = maxLevel; l > level; l--) {
+                ScoredNode best = greedyClosest(query, current, currentScore, l);
+                current = best.node();
+                currentScore = best.score();
+            }
+            // 在新节点所在的每一层建立连接
+            List<ScoredNode> entryPoints = List.of(new ScoredNode(current, currentScore));
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                List<ScoredNode> candidates = searchLayer(query, entryPoints, efConstruction, l, null);
+                int maxNeighbours = l == 0 ? maxM0 : m;
+                List<ScoredNode> selected = selectNeighbours(candidates, m);
+                int[] neighbourIds = new int[selected.size()];
+                for (int i = 0; i < neighbourIds.length; i++) {
+                    neighbourIds[i] = selected.get(i).node();
+                }
+                links[node][l] = neighbourIds;
+                for (ScoredNode neighbour : selected) {
+                    connect(neighbour.node(), node, neighbour.score(), l, maxNeighbours);
+                }
+                entryPoints = candidates;
+            }
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 近似 k 近邻搜索
+     *
+     * @param query  查询相似度函数
+     * @param k      返回数量
+     * @param ef     搜索时的动态候选列表大小，越大召回越高、越慢
+     * @param filter 节点过滤条件，可为 null；不满足条件的节点仍可作为路由节点，但不会出现在结果中
+     * @return 按相似度从高到低排序的结果
+     */
+    public List<ScoredNode> search(QuerySimilarity query, int k, int ef, IntPredicate filter) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return List.of();
+            }
+            int current = entryPoint;
+            float currentScore = query.to(current);
+            for (int l = maxLevel; l > 0; l--) {
+                ScoredNode best = greedyClosest(query, current, currentScore, l);
+                current = best.node();
+                currentScore = best.score();
+            }
+            List<ScoredNode> found = searchLayer(query, List.of(new ScoredNode(current, currentScore)),
+                    Math.max(ef, k), 0, filter);
+            return found.size() > k ? new ArrayList<>(found.subList(0, k)) : found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ScoredNode greedyClosest(QuerySimilarity query, int start, float startScore, int level) {
+        int current = start;
+        float currentScore = startScore;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbour : links[current][level]) {
+                float score = query.to(neighbour);
+                if (score > currentScore) {
+                    current = neighbour;
+                    currentScore = score;
+                    changed = true;
+                }
+            }
+        }
+        return new ScoredNode(current, currentScore);
+    }
+
+    /**
+     * 单层 beam search，返回按相似度降序排列的最多 ef 个结果
+     */
+    private List<ScoredNode> searchLayer(QuerySimilarity query, List<ScoredNode> entryPoints, int ef, int level,
+                                         IntPredicate filter) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<ScoredNode> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<ScoredNode> results = new PriorityQueue<>(WORST_FIRST);
+        for (ScoredNode ep : entryPoints) {
+            if (visited.get(ep.node())) {
+                continue;
+            }
+            visited.set(ep.node());
+            candidates.add(ep);
+            offer(results, ep, ef, filter);
+        }
+        while (!candidates.isEmpty()) {
+            ScoredNode candidate = candidates.poll();
+            if (results.size() >= ef && candidate.score() < results.peek().score()) {
+                break;
+            }
+            int[] neighbours = links[candidate.node()].length > level ? links[candidate.node()][level] : new int[0];
+            for (int neighbour : neighbours) {
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float score = query.to(neighbour);
+                if (results.size() < ef || score > results.peek().score()) {
+                    ScoredNode scored = new ScoredNode(neighbour, score);
+                    candidates.add(scored);
+                    offer(results, scored, ef, filter);
+                }
+            }
+        }
+        List<ScoredNode> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    private static void offer(PriorityQueue<ScoredNode> results, ScoredNode node, int ef, IntPredicate filter) {
+        if (filter != null && !filter.test(node.node())) {
+            return;
+        }
+        results.add(node);
+        if (results.size() > ef) {
+            results.poll();
+        }
+    }
+
+    /**
+     * 启发式邻居选择（论文 Algorithm 4）：候选与已选邻居过于相近时跳过，以保持图的连通性和多样性，
+     * 名额不足时再用被跳过的候选补齐。
+     */
+    private List<ScoredNode> selectNeighbours(List<ScoredNode> candidatesBestFirst, int max) {
+        if (candidatesBestFirst.size() <= max) {
+            return candidatesBestFirst;
+        }
+        List<ScoredNode> selected = new ArrayList<>(max);
+        List<ScoredNode> pruned = new ArrayList<>();
+        for (ScoredNode candidate : candidatesBestFirst) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (ScoredNode chosen : selected) {
+                if (similarity.between(candidate.node(), chosen.node()) > candidate.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < max; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    private void connect(int node, int newNeighbour, float score, int level, int maxNeighbours) {
+        int[] current = links[node][level];
+        int[] extended = Arrays.copyOf(current, current.length + 1);
+        extended[current.length] = newNeighbour;
+        if (extended.length <= maxNeighbours) {
+            links[node][level] = extended;
+            return;
+        }
+        // 超出上限时重新做一次启发式裁剪
+        List<ScoredNode> scored = new ArrayList<>(extended.length);
+        for (int neighbour : extended) {
+            scored.add(new ScoredNode(neighbour, neighbour == newNeighbour ? score : similarity.between(node, neighbour)));
+        }
+        scored.sort(BEST_FIRST);
+        List<ScoredNode> kept = selectNeighbours(scored, maxNeighbours);
+        int[] keptIds = new int[kept.size()];
+        for (int i = 0; i < keptIds.length; i++) {
+            keptIds[i] = kept.get(i).node();
+        }
+        links[node][level] = keptIds;
+    }
+
+    private int randomLevel() {
+        double r = 1.0 - random.nextDouble();
+        return (int) Math.floor(-Math.log(r) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > links.length) {
+            links = Arrays.copyOf(links, Math.max(capacity, links.length * 2));
+        }
+    }
+}
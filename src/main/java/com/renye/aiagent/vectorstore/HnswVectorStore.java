@@ -0,0 +1,286 @@
+package com.renye.aiagent.vectorstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * 基于 HNSW 图索引的进程内 VectorStore。
+ * <p>
+ * SimpleVectorStore 每次检索都要对全部文档做一次余弦扫描，知识库增长到上万页后检索耗时线性增长；
+ * 这里用 HNSW 做近似最近邻检索，检索代价约为 O(log N)。
+ * 向量在入库时归一化，余弦相似度即点积。删除采用墓碑标记，不会重建图。
+ * 向量的存储方式由 {@link VectorStorage} 决定；使用量化等近似存储时，先按近似分数召回 topK × rerankFactor 个候选，
+ * 再用全精度向量重排取 topK。
+ * 标签过滤（doc_tags）走 {@link TagIndex} 位图：候选集较小时直接对候选节点精确打分，
+ * 否则在图上检索并按位图过滤；其他过滤表达式退回 SpEL 逐个求值。
+ * 文档内容和元数据按列存放在 {@link DocumentColumns} 中，检索命中时才组装成 Document。
+ *
+ * @author 忍
+ */
+public class HnswVectorStore implements KnowledgeVectorStore {
+
+    private static final Logger log = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    // 与 SimpleVectorStore 保持一致：检索结果的元数据中附带 distance = 1 - 相似度
+    public static final String DISTANCE_METADATA_KEY = "distance";
+
+    private final EmbeddingModel embeddingModel;
+    private final int m;
+    private final int efSearch;
+    private final int rerankFactor;
+    private final HnswIndex index;
+
+    // 节点编号 -> 文档 / 归一化后的向量
+    private final DocumentColumns documents = new DocumentColumns();
+    private final VectorStorage vectors;
+    private final Map<String, Integer> idToNode = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private final TagIndex tagIndex = new TagIndex();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+    private final SimpleVectorStoreFilterExpressionConverter filterExpressionConverter =
+            new SimpleVectorStoreFilterExpressionConverter();
+
+    public HnswVectorStore(EmbeddingModel embeddingModel, int m, int efConstruction, int efSearch) {
+        this(embeddingModel, m, efConstruction, efSearch, new FloatVectorStorage(), 1);
+    }
+
+    /**
+     * @param vectorStorage 向量存储方式
+     * @param rerankFactor  近似存储时，全精度重排的候选数为 topK 的多少倍
+     */
+    public HnswVectorStore(EmbeddingModel embeddingModel, int m, int efConstruction, int efSearch,
+                           VectorStorage vectorStorage, int rerankFactor) {
+        this.embeddingModel = embeddingModel;
+        this.m = m;
+        this.efSearch = efSearch;
+        this.vectors = vectorStorage;
+        this.rerankFactor = Math.max(1, rerankFactor);
+        this.index = new HnswIndex(m, efConstruction, vectors::similarity);
+    }
+
+    @Override
+    public void add(List<Document> documentsToAdd) {
+        if (documentsToAdd == null || documentsToAdd.isEmpty()) {
+            return;
+        }
+        List<String> texts = documentsToAdd.stream().map(Document::getContent).toList();
+        addEmbedded(documentsToAdd, embeddingModel.embed(texts));
+    }
+
+    @Override
+    public void addEmbedded(List<Document> documentsToAdd, List<float[]> embeddings) {
+        if (embeddings.size() != documentsToAdd.size()) {
+            throw new IllegalStateException("向量数量(" + embeddings.size()
+                    + ")与文档数量(" + documentsToAdd.size() + ")不一致");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documentsToAdd.size(); i++) {
+                Document document = documentsToAdd.get(i);
+                Integer previous = idToNode.get(document.getId());
+                if (previous != null) {
+                    // 同一id重复写入时，旧节点打墓碑，新节点追加
+                    deleted.set(previous);
+                }
+                int node = documents.add(document);
+                vectors.add(VectorMath.normalize(embeddings.get(i)));
+                idToNode.put(document.getId(), node);
+                tagIndex.add(node, document.getMetadata());
+                index.insert(node);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("HnswVectorStore 新增 {} 个文档，当前节点数 {}", documentsToAdd.size(), documents.size());
+    }
+
+    @Override
+    public Optional<Boolean> delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            boolean removedAny = false;
+            for (String id : idList) {
+                Integer node = idToNode.remove(id);
+                if (node != null) {
+                    deleted.set(node);
+                    removedAny = true;
+                }
+            }
+            return Optional.of(removedAny);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return similaritySearch(embeddingModel.embed(request.getQuery()), request);
+    }
+
+    @Override
+    public List<Document> similaritySearch(float[] queryEmbedding, SearchRequest request) {
+        float[] query = VectorMath.normalize(queryEmbedding);
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            int topK = request.getTopK();
+            // 近似存储多召回一些候选，留给全精度重排
+            int candidateCount = vectors.isApproximate() ? topK * rerankFactor : topK;
+            HnswIndex.QuerySimilarity similarity = vectors.query(query);
+            BitSet candidates = request.hasFilterExpression() ? tagIndex.resolve(request.getFilterExpression()) : null;
+            List<ScoredNode> hits = candidates != null
+                    ? searchCandidates(similarity, candidates, candidateCount)
+                    : index.search(similarity, candidateCount, Math.max(efSearch, candidateCount), metadataFilter(request));
+            if (vectors.isApproximate()) {
+                hits = rerank(query, hits, topK);
+            }
+            List<Document> results = new ArrayList<>(hits.size());
+            for (ScoredNode hit : hits) {
+                if (hit.score() < request.getSimilarityThreshold()) {
+                    continue;
+                }
+                Document document = documents.document(hit.node());
+                document.getMetadata().put(DISTANCE_METADATA_KEY, 1.0f - hit.score());
+                results.add(document);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("HNSW 检索完成: topK={}, 命中={}, 耗时={}μs", topK, results.size(),
+                        (System.nanoTime() - start) / 1000);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachEmbedded(BiConsumer<Document, float[]> consumer) {
+        lock.readLock().lock();
+        try {
+            for (int node = 0; node < documents.size(); node++) {
+                if (!deleted.get(node)) {
+                    consumer.accept(documents.document(node), vectors.vector(node));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Document getById(String id) {
+        lock.readLock().lock();
+        try {
+            Integer node = idToNode.get(id);
+            return node != null ? documents.document(node) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idToNode.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 用全精度向量对近似召回的候选重新打分，取前 topK
+     */
+    private List<ScoredNode> rerank(float[] query, List<ScoredNode> hits, int topK) {
+        TopK best = new TopK(topK);
+        for (ScoredNode hit : hits) {
+            best.offer(hit.node(), vectors.exactSimilarity(query, hit.node()));
+        }
+        return best.sorted();
+    }
+
+    /**
+     * 向量数据的堆内 / 堆外占用（估算），用于日志
+     */
+    public String memoryUsage() {
+        lock.readLock().lock();
+        try {
+            return String.format("%s: %d 个向量，堆内 %d KB，堆外 %d KB", vectors.getClass().getSimpleName(), vectors.size(),
+                    vectors.heapBytes() / 1024, vectors.offHeapBytes() / 1024);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 释放向量存储的堆外内存或映射文件。Spring 会把公开的 close 方法推断为 bean 的销毁方法
+     */
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            vectors.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在标签位图确定的候选集合内检索。候选集小时逐个精确打分（耗时与候选数成正比）；
+     * 候选集大时仍走图检索，并按过滤比例放大 ef，保证过滤后仍能凑够 topK。
+     */
+    private List<ScoredNode> searchCandidates(HnswIndex.QuerySimilarity similarity, BitSet candidates, int topK) {
+        candidates.andNot(deleted);
+        int cardinality = candidates.cardinality();
+        if (cardinality == 0) {
+            return List.of();
+        }
+        int total = documents.size();
+        if (cardinality <= efSearch * m || cardinality * 10L <= total) {
+            TopK best = new TopK(topK);
+            for (int node = candidates.nextSetBit(0); node >= 0; node = candidates.nextSetBit(node + 1)) {
+                best.offer(node, similarity.to(node));
+            }
+            return best.sorted();
+        }
+        int ef = (int) Math.min(total, (long) Math.max(efSearch, topK) * total / cardinality);
+        return index.search(similarity, topK, ef, candidates::get);
+    }
+
+    private IntPredicate metadataFilter(SearchRequest request) {
+        if (!request.hasFilterExpression()) {
+            return node -> !deleted.get(node);
+        }
+        // 复用 SimpleVectorStore 的 SpEL 过滤表达式转换，保证过滤语义一致
+        Expression expression = expressionParser.parseExpression(
+                filterExpressionConverter.convertExpression(request.getFilterExpression()));
+        return node -> {
+            if (deleted.get(node)) {
+                return false;
+            }
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            context.setVariable("metadata", documents.metadata(node));
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+}
@@ -0,0 +1,114 @@
+package com.renye.aiagent.vectorstore;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * int8 标量量化的向量存储。
+ * <p>
+ * 每个向量按自身的最大绝对值缩放到 [-127, 127]，量化码连续存放在堆内的 byte[] 中（每维 1 字节，是 float 的 1/4），
+ * 另存一个 float 缩放系数。建图和图遍历只读量化码：节点之间用 int8 点积，查询与节点之间用 float 查询 × int8 码（非对称，误差更小）。
+ * 全精度向量写入堆外的 {@link VectorArena}（direct buffer 或映射文件），只在重排和导出快照时读取，不占用堆内存、不参与 GC。
+ * 注意这只是把内存从堆内移到堆外：量化码之外全精度向量仍完整保留一份，总内存约为全精度存储的 1.25 倍。
+ *
+ * @author 忍
+ */
+public class Int8VectorStorage implements VectorStorage {
+
+    private final VectorArena fullPrecision;
+    private int dimension = -1;
+    private int size;
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[256];
+
+    public Int8VectorStorage(VectorArena fullPrecision) {
+        this.fullPrecision = fullPrecision;
+    }
+
+    @Override
+    public void add(float[] normalizedVector) {
+        if (dimension < 0) {
+            dimension = normalizedVector.length;
+        } else if (normalizedVector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不一致: 期望 " + dimension + "，实际 " + normalizedVector.length);
+        }
+        int node = size;
+        ensureCapacity(node + 1);
+
+        float maxAbs = 0f;
+        for (float v : normalizedVector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        float scale = maxAbs == 0f ? 0f : maxAbs / 127f;
+        float inverse = scale == 0f ? 0f : 1f / scale;
+        int offset = node * dimension;
+        for (int i = 0; i < dimension; i++) {
+            codes[offset + i] = (byte) Math.round(normalizedVector[i] * inverse);
+        }
+        scales[node] = scale;
+
+        fullPrecision.add(normalizedVector);
+        size++;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if ((long) nodes * Math.max(dimension, 1) > codes.length) {
+            long grown = Math.max((long) nodes * dimension, (long) codes.length * 3 / 2);
+            if (grown > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("量化向量数据超过单个数组上限，当前节点数: " + size);
+            }
+            codes = Arrays.copyOf(codes, (int) grown);
+        }
+        if (nodes > scales.length) {
+            scales = Arrays.copyOf(scales, Math.max(nodes, scales.length * 2));
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float similarity(int a, int b) {
+        return VectorMath.dotInt8(codes, a * dimension, codes, b * dimension, dimension) * scales[a] * scales[b];
+    }
+
+    @Override
+    public HnswIndex.QuerySimilarity query(float[] normalizedQuery) {
+        return node -> VectorMath.dotFloatInt8(normalizedQuery, codes, node * dimension, dimension) * scales[node];
+    }
+
+    @Override
+    public float exactSimilarity(float[] normalizedQuery, int node) {
+        // 堆外 FloatBuffer 无法直接交给 Vector API，先批量拷贝到堆内再算；只用于少量候选的重排
+        return VectorMath.dot(normalizedQuery, vector(node));
+    }
+
+    @Override
+    public float[] vector(int node) {
+        float[] vector = new float[dimension];
+        fullPrecision.get(node, vector);
+        return vector;
+    }
+
+    @Override
+    public boolean isApproximate() {
+        return true;
+    }
+
+    @Override
+    public long heapBytes() {
+        return (long) size * Math.max(dimension, 0) + (long) size * Float.BYTES;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return fullPrecision.bytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        fullPrecision.close();
+    }
+}
@@ -0,0 +1,46 @@
+package com.renye.aiagent.vectorstore;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * 知识库专用的 VectorStore 扩展：支持直接写入已计算好的向量、以及导出全部向量，
+ * 以便启动时从快照恢复而不必重新调用 EmbeddingModel。
+ *
+ * @author 忍
+ */
+public interface KnowledgeVectorStore extends VectorStore {
+
+    /**
+     * 写入已经计算好向量的文档，不会调用 EmbeddingModel
+     *
+     * @param documents  文档列表
+     * @param embeddings 与 documents 一一对应的向量
+     */
+    void addEmbedded(List<Document> documents, List<float[]> embeddings);
+
+    /**
+     * 使用调用方已计算好的查询向量检索，忽略 request 中的 query 文本。
+     * 同一个问题需要多次检索（如按标签分别检索）时，只需调用一次 EmbeddingModel。
+     */
+    List<Document> similaritySearch(float[] queryEmbedding, SearchRequest request);
+
+    /**
+     * 遍历所有未删除的文档及其（归一化后的）向量
+     */
+    void forEachEmbedded(BiConsumer<Document, float[]> consumer);
+
+    /**
+     * 按id取未删除的文档（新组装的 Document，元数据可修改），不存在时返回 null
+     */
+    Document getById(String id);
+
+    /**
+     * 当前未删除的文档数量
+     */
+    int size();
+}
@@ -0,0 +1,91 @@
+package com.renye.aiagent.vectorstore;
+
+import java.io.IOException;
+
+/**
+ * 全精度、全部放在堆外 {@link VectorArena} 中的向量存储，堆内不保留任何每向量对象。
+ * <p>
+ * Vector API 在 Java 21 上不能直接读取 FloatBuffer，打分时先把向量批量拷贝到复用的堆内临时数组再计算，
+ * 拷贝是连续内存复制，代价远小于点积本身。
+ *
+ * @author 忍
+ */
+public class OffHeapVectorStorage implements VectorStorage {
+
+    private final VectorArena arena;
+    // 建图在单个写线程上进行，相似度计算复用同一对临时数组
+    private final ThreadLocal<float[][]> scratch = new ThreadLocal<>();
+
+    public OffHeapVectorStorage(VectorArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    public void add(float[] normalizedVector) {
+        arena.add(normalizedVector);
+    }
+
+    @Override
+    public int size() {
+        return arena.size();
+    }
+
+    @Override
+    public float similarity(int a, int b) {
+        float[][] buffers = scratch();
+        arena.get(a, buffers[0]);
+        arena.get(b, buffers[1]);
+        return VectorMath.dot(buffers[0], buffers[1]);
+    }
+
+    @Override
+    public HnswIndex.QuerySimilarity query(float[] normalizedQuery) {
+        // 每次查询一个临时数组，检索线程（包括虚拟线程）之间不共享
+        float[] buffer = new float[arena.dimension()];
+        return node -> {
+            arena.get(node, buffer);
+            return VectorMath.dot(normalizedQuery, buffer);
+        };
+    }
+
+    @Override
+    public float exactSimilarity(float[] normalizedQuery, int node) {
+        return VectorMath.dot(normalizedQuery, vector(node));
+    }
+
+    @Override
+    public float[] vector(int node) {
+        float[] vector = new float[arena.dimension()];
+        arena.get(node, vector);
+        return vector;
+    }
+
+    @Override
+    public boolean isApproximate() {
+        return false;
+    }
+
+    @Override
+    public long heapBytes() {
+        return 0;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return arena.bytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        arena.close();
+    }
+
+    private float[][] scratch() {
+        float[][] buffers = scratch.get();
+        if (buffers == null || buffers[0].length != arena.dimension()) {
+            buffers = new float[][]{new float[arena.dimension()], new float[arena.dimension()]};
+            scratch.set(buffers);
+        }
+        return buffers;
+    }
+}
@@ -0,0 +1,36 @@
+package com.renye.aiagent.vectorstore;
+
+/**
+ * 标量循环实现的向量计算内核，不依赖 Vector API
+ *
+ * @author 忍
+ */
+final class ScalarKernel implements VectorMath.Kernel {
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dotFloatInt8(float[] query, byte[] codes, int codesOffset, int length) {
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += query[i] * codes[codesOffset + i];
+        }
+        return sum;
+    }
+}
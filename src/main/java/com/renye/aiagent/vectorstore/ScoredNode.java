@@ -0,0 +1,9 @@
+package com.renye.aiagent.vectorstore;
+
+/**
+ * 检索结果中的一个节点：内部节点编号 + 相似度分数（越大越相似）
+ *
+ * @author 忍
+ */
+public record ScoredNode(int node, float score) {
+}
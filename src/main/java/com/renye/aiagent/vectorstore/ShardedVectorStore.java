@@ -0,0 +1,327 @@
+package com.renye.aiagent.vectorstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * 分片并行精确检索的进程内 VectorStore。
+ * <p>
+ * 知识库规模在几千到几万个文档块时，HNSW 的建图开销和召回损失不一定划算，而单线程全量扫描又会让检索耗时随文档数线性增长。
+ * 这里把文档按写入顺序轮流分配到 N 个分片，检索时每个分片在 ForkJoinPool 上各自做一次精确扫描，
+ * 得到分片内的 topK 后再用有界小顶堆合并，检索耗时约为单线程扫描的 1/N（N 不超过 CPU 核数时）。
+ * 文档数低于 parallelThreshold 时由调用线程直接扫描，避免任务调度开销超过扫描本身。
+ * 标签过滤（doc_tags）走每个分片自己的 {@link TagIndex} 位图，其他过滤表达式退回 SpEL 逐个求值。
+ * 向量存储方式与 {@link HnswVectorStore} 相同，由 {@link VectorStorage} 决定，近似存储时在分片内做全精度重排。
+ *
+ * @author 忍
+ */
+public class ShardedVectorStore implements KnowledgeVectorStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedVectorStore.class);
+
+    private final EmbeddingModel embeddingModel;
+    private final Shard[] shards;
+    private final int parallelThreshold;
+    private final int rerankFactor;
+    private final ForkJoinPool pool;
+
+    // 文档id -> 全局节点编号；全局编号 g 位于分片 g % N 的第 g / N 行
+    private final Map<String, Integer> idToNode = new HashMap<>();
+    private int nodeCount;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+    private final SimpleVectorStoreFilterExpressionConverter filterExpressionConverter =
+            new SimpleVectorStoreFilterExpressionConverter();
+
+    /**
+     * @param shardCount        分片数，通常取 CPU 核数
+     * @param parallelThreshold 文档数不低于该值时才并行检索
+     * @param storageFactory    每个分片的向量存储
+     * @param rerankFactor      近似存储时，全精度重排的候选数为 topK 的多少倍
+     */
+    public ShardedVectorStore(EmbeddingModel embeddingModel, int shardCount, int parallelThreshold,
+                              Supplier<VectorStorage> storageFactory, int rerankFactor) {
+        this.embeddingModel = embeddingModel;
+        this.shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(storageFactory.get());
+        }
+        this.parallelThreshold = parallelThreshold;
+        this.rerankFactor = Math.max(1, rerankFactor);
+        // 调用线程自己扫描一个分片，其余分片交给线程池
+        this.pool = new ForkJoinPool(Math.max(1, shards.length - 1));
+    }
+
+    @Override
+    public void add(List<Document> documentsToAdd) {
+        if (documentsToAdd == null || documentsToAdd.isEmpty()) {
+            return;
+        }
+        List<String> texts = documentsToAdd.stream().map(Document::getContent).toList();
+        addEmbedded(documentsToAdd, embeddingModel.embed(texts));
+    }
+
+    @Override
+    public void addEmbedded(List<Document> documentsToAdd, List<float[]> embeddings) {
+        if (embeddings.size() != documentsToAdd.size()) {
+            throw new IllegalStateException("向量数量(" + embeddings.size()
+                    + ")与文档数量(" + documentsToAdd.size() + ")不一致");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documentsToAdd.size(); i++) {
+                Document document = documentsToAdd.get(i);
+                Integer previous = idToNode.get(document.getId());
+                if (previous != null) {
+                    // 同一id重复写入时，旧节点打墓碑，新节点追加
+                    markDeleted(previous);
+                }
+                int node = nodeCount++;
+                shards[node % shards.length].add(document, VectorMath.normalize(embeddings.get(i)));
+                idToNode.put(document.getId(), node);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("ShardedVectorStore 新增 {} 个文档，当前节点数 {}", documentsToAdd.size(), nodeCount);
+    }
+
+    @Override
+    public Optional<Boolean> delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            boolean removedAny = false;
+            for (String id : idList) {
+                Integer node = idToNode.remove(id);
+                if (node != null) {
+                    markDeleted(node);
+                    removedAny = true;
+                }
+            }
+            return Optional.of(removedAny);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void markDeleted(int node) {
+        shards[node % shards.length].deleted.set(node / shards.length);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return similaritySearch(embeddingModel.embed(request.getQuery()), request);
+    }
+
+    @Override
+    public List<Document> similaritySearch(float[] queryEmbedding, SearchRequest request) {
+        float[] query = VectorMath.normalize(queryEmbedding);
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            int topK = request.getTopK();
+            Expression expression = request.hasFilterExpression()
+                    ? expressionParser.parseExpression(filterExpressionConverter.convertExpression(request.getFilterExpression()))
+                    : null;
+            boolean parallel = shards.length > 1 && nodeCount >= parallelThreshold;
+            List<ForkJoinTask<List<ScoredNode>>> tasks = new ArrayList<>(shards.length - 1);
+            if (parallel) {
+                for (int i = 1; i < shards.length; i++) {
+                    int shardIndex = i;
+                    tasks.add(pool.submit(() -> searchShard(shardIndex, query, request, expression, topK)));
+                }
+            }
+            // 合并时节点编号换成全局编号，便于取回文档
+            TopK merged = new TopK(topK);
+            int shardCount = parallel ? 1 : shards.length;
+            for (int i = 0; i < shardCount; i++) {
+                offerGlobal(merged, i, searchShard(i, query, request, expression, topK));
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                offerGlobal(merged, i + 1, tasks.get(i).join());
+            }
+
+            List<Document> results = new ArrayList<>(topK);
+            for (ScoredNode hit : merged.sorted()) {
+                if (hit.score() < request.getSimilarityThreshold()) {
+                    continue;
+                }
+                Document document = shards[hit.node() % shards.length].documents.document(hit.node() / shards.length);
+                document.getMetadata().put(HnswVectorStore.DISTANCE_METADATA_KEY, 1.0f - hit.score());
+                results.add(document);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("分片检索完成: topK={}, 分片={}, 并行={}, 命中={}, 耗时={}μs", topK, shards.length, parallel,
+                        results.size(), (System.nanoTime() - start) / 1000);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void offerGlobal(TopK merged, int shardIndex, List<ScoredNode> hits) {
+        for (ScoredNode hit : hits) {
+            merged.offer(hit.node() * shards.length + shardIndex, hit.score());
+        }
+    }
+
+    /**
+     * 在单个分片内精确扫描，返回分片内编号的 topK。调用方持有读锁，线程池中的任务只读分片数据
+     */
+    private List<ScoredNode> searchShard(int shardIndex, float[] query, SearchRequest request,
+                                         Expression expression, int topK) {
+        Shard shard = shards[shardIndex];
+        VectorStorage vectors = shard.vectors;
+        BitSet candidates = request.hasFilterExpression() ? shard.tagIndex.resolve(request.getFilterExpression()) : null;
+
+        // 近似存储多召回一些候选，留给全精度重排
+        TopK best = new TopK(vectors.isApproximate() ? topK * rerankFactor : topK);
+        HnswIndex.QuerySimilarity similarity = vectors.query(query);
+        if (candidates != null) {
+            candidates.andNot(shard.deleted);
+            for (int node = candidates.nextSetBit(0); node >= 0; node = candidates.nextSetBit(node + 1)) {
+                best.offer(node, similarity.to(node));
+            }
+        } else {
+            IntPredicate accept = expression == null
+                    ? node -> !shard.deleted.get(node)
+                    : node -> !shard.deleted.get(node) && matches(expression, shard.documents.metadata(node));
+            for (int node = 0, size = vectors.size(); node < size; node++) {
+                if (accept.test(node)) {
+                    best.offer(node, similarity.to(node));
+                }
+            }
+        }
+        if (!vectors.isApproximate()) {
+            return best.sorted();
+        }
+        TopK reranked = new TopK(topK);
+        for (ScoredNode hit : best.sorted()) {
+            reranked.offer(hit.node(), vectors.exactSimilarity(query, hit.node()));
+        }
+        return reranked.sorted();
+    }
+
+    private static boolean matches(Expression expression, Map<String, Object> metadata) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", metadata);
+        return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+    }
+
+    @Override
+    public void forEachEmbedded(BiConsumer<Document, float[]> consumer) {
+        lock.readLock().lock();
+        try {
+            // 按全局编号（即写入顺序）遍历，快照内容与分片数无关
+            for (int node = 0; node < nodeCount; node++) {
+                Shard shard = shards[node % shards.length];
+                int row = node / shards.length;
+                if (!shard.deleted.get(row)) {
+                    consumer.accept(shard.documents.document(row), shard.vectors.vector(row));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Document getById(String id) {
+        lock.readLock().lock();
+        try {
+            Integer node = idToNode.get(id);
+            return node != null ? shards[node % shards.length].documents.document(node / shards.length) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idToNode.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 向量数据的堆内 / 堆外占用（估算），用于日志
+     */
+    public String memoryUsage() {
+        lock.readLock().lock();
+        try {
+            long heapBytes = 0;
+            long offHeapBytes = 0;
+            for (Shard shard : shards) {
+                heapBytes += shard.vectors.heapBytes();
+                offHeapBytes += shard.vectors.offHeapBytes();
+            }
+            return String.format("%d 个分片 × %s: %d 个向量，堆内 %d KB，堆外 %d KB", shards.length,
+                    shards[0].vectors.getClass().getSimpleName(), nodeCount, heapBytes / 1024, offHeapBytes / 1024);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 关闭检索线程池并释放各分片的堆外内存或映射文件。Spring 会把公开的 close 方法推断为 bean 的销毁方法
+     */
+    public void close() throws IOException {
+        pool.shutdown();
+        lock.writeLock().lock();
+        try {
+            for (Shard shard : shards) {
+                shard.vectors.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 一个分片：分片内行号 -> 文档 / 向量 / 墓碑 / 标签位图
+     */
+    private static final class Shard {
+
+        private final DocumentColumns documents = new DocumentColumns();
+        private final VectorStorage vectors;
+        private final BitSet deleted = new BitSet();
+        private final TagIndex tagIndex = new TagIndex();
+
+        private Shard(VectorStorage vectors) {
+            this.vectors = vectors;
+        }
+
+        private void add(Document document, float[] normalizedVector) {
+            int row = documents.add(document);
+            vectors.add(normalizedVector);
+            tagIndex.add(row, document.getMetadata());
+        }
+    }
+}
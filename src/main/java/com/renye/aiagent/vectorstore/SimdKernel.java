@@ -0,0 +1,99 @@
+package com.renye.aiagent.vectorstore;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 基于 jdk.incubator.vector 的 SIMD 向量计算内核，按 CPU 支持的最宽寄存器（SSE / NEON 为 128 位，AVX2 为 256 位，AVX-512 为 512 位）
+ * 一次处理多个分量。int8 点积把字节加宽为 int（或 float）后相乘累加，避免 byte 乘法溢出。
+ * 字节向量至少取 64 位（Vector API 支持的最小形状）：int / float 寄存器较窄时，一组字节的加宽结果超出一个寄存器，
+ * 按 part 分几次转换。只能由 {@link VectorMath} 在确认模块可用后反射加载，且只在 -Psimd 构建中编译。
+ *
+ * @author 忍
+ */
+final class SimdKernel implements VectorMath.Kernel {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    // 每次加载的字节向量，加宽后为 INT_PARTS 个 int 寄存器
+    private static final VectorSpecies<Byte> BYTES_FOR_INTS = byteSpecies(INTS.length());
+    private static final int INT_PARTS = BYTES_FOR_INTS.length() / INTS.length();
+    // 每次加载的字节向量，加宽后为 FLOAT_PARTS 个 float 寄存器
+    private static final VectorSpecies<Byte> BYTES_FOR_FLOATS = byteSpecies(FLOATS.length());
+    private static final int FLOAT_PARTS = BYTES_FOR_FLOATS.length() / FLOATS.length();
+
+    /**
+     * 与 lanes 个通道对应的字节向量，不小于 64 位
+     */
+    private static VectorSpecies<Byte> byteSpecies(int lanes) {
+        return VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, lanes * Byte.SIZE)));
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int i = 0;
+        int bound = FLOATS.loopBound(length);
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromArray(FLOATS, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(FLOATS, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        IntVector acc = IntVector.zero(INTS);
+        int i = 0;
+        int bound = BYTES_FOR_INTS.loopBound(length);
+        for (; i < bound; i += BYTES_FOR_INTS.length()) {
+            ByteVector ba = ByteVector.fromArray(BYTES_FOR_INTS, a, aOffset + i);
+            ByteVector bb = ByteVector.fromArray(BYTES_FOR_INTS, b, bOffset + i);
+            for (int part = 0; part < INT_PARTS; part++) {
+                IntVector va = (IntVector) ba.convertShape(VectorOperators.B2I, INTS, part);
+                IntVector vb = (IntVector) bb.convertShape(VectorOperators.B2I, INTS, part);
+                acc = acc.add(va.mul(vb));
+            }
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dotFloatInt8(float[] query, byte[] codes, int codesOffset, int length) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int i = 0;
+        int bound = BYTES_FOR_FLOATS.loopBound(length);
+        for (; i < bound; i += BYTES_FOR_FLOATS.length()) {
+            ByteVector bc = ByteVector.fromArray(BYTES_FOR_FLOATS, codes, codesOffset + i);
+            for (int part = 0; part < FLOAT_PARTS; part++) {
+                FloatVector vq = FloatVector.fromArray(FLOATS, query, i + part * FLOATS.length());
+                FloatVector vc = (FloatVector) bc.convertShape(VectorOperators.B2F, FLOATS, part);
+                acc = vq.fma(vc, acc);
+            }
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += query[i] * codes[codesOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "SimdKernel[float " + FLOATS.vectorBitSize() + " 位 x" + FLOATS.length()
+                + ", int8 " + BYTES_FOR_INTS.vectorBitSize() + " 位 -> int x" + INTS.length() + " x " + INT_PARTS + " 段]";
+    }
+}
@@ -0,0 +1,122 @@
+package com.renye.aiagent.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 标签倒排索引：标签 -> 拥有该标签的节点集合（BitSet）。
+ * <p>
+ * 入库时从元数据 doc_tags（逗号分隔）中解析标签建立索引，检索时把只涉及标签的过滤表达式
+ * 直接解析为候选节点位图，只对候选节点打分，而不是先检索再逐个求值 SpEL 过滤表达式。
+ * 非线程安全，由所属 VectorStore 的读写锁保护。
+ *
+ * @author 忍
+ */
+public class TagIndex {
+
+    // 文档标签在元数据中的 key，值为逗号分隔的标签字符串
+    public static final String TAG_METADATA_KEY = "doc_tags";
+
+    private final Map<String, BitSet> postings = new HashMap<>();
+
+    public void add(int node, Map<String, Object> metadata) {
+        for (String tag : parseTags(metadata.get(TAG_METADATA_KEY))) {
+            postings.computeIfAbsent(tag, k -> new BitSet()).set(node);
+        }
+    }
+
+    public Set<String> tags() {
+        return new TreeSet<>(postings.keySet());
+    }
+
+    /**
+     * 把过滤表达式解析为候选节点位图。支持 doc_tags 上的 EQ / IN，以及它们的 AND / OR 组合；
+     * 表达式中含有其他字段或运算符时返回 null，由调用方退回通用的过滤方式。
+     */
+    public BitSet resolve(Filter.Expression expression) {
+        return switch (expression.type()) {
+            case EQ -> {
+                String tag = tagValue(expression);
+                yield tag == null ? null : copyOf(tag);
+            }
+            case IN -> {
+                if (!isTagKey(expression.left()) || !(expression.right() instanceof Filter.Value value)
+                        || !(value.value() instanceof Collection<?> values)) {
+                    yield null;
+                }
+                BitSet union = new BitSet();
+                for (Object tag : values) {
+                    union.or(copyOf(normalize(tag.toString())));
+                }
+                yield union;
+            }
+            case AND, OR -> {
+                BitSet left = resolveOperand(expression.left());
+                BitSet right = resolveOperand(expression.right());
+                if (left == null || right == null) {
+                    yield null;
+                }
+                if (expression.type() == Filter.ExpressionType.AND) {
+                    left.and(right);
+                } else {
+                    left.or(right);
+                }
+                yield left;
+            }
+            default -> null;
+        };
+    }
+
+    private BitSet resolveOperand(Filter.Operand operand) {
+        if (operand instanceof Filter.Expression expression) {
+            return resolve(expression);
+        }
+        if (operand instanceof Filter.Group group) {
+            return resolve(group.content());
+        }
+        return null;
+    }
+
+    private String tagValue(Filter.Expression expression) {
+        if (!isTagKey(expression.left()) || !(expression.right() instanceof Filter.Value value) || value.value() == null) {
+            return null;
+        }
+        return normalize(value.value().toString());
+    }
+
+    private static boolean isTagKey(Filter.Operand operand) {
+        return operand instanceof Filter.Key key && TAG_METADATA_KEY.equals(key.key());
+    }
+
+    private BitSet copyOf(String tag) {
+        BitSet nodes = postings.get(tag);
+        return nodes == null ? new BitSet() : (BitSet) nodes.clone();
+    }
+
+    public static List<String> parseTags(Object value) {
+        List<String> tags = new ArrayList<>();
+        if (value == null) {
+            return tags;
+        }
+        for (String tag : value.toString().split(",")) {
+            String normalized = normalize(tag);
+            if (!normalized.isEmpty()) {
+                tags.add(normalized);
+            }
+        }
+        return tags;
+    }
+
+    public static String normalize(String tag) {
+        return tag.trim().toLowerCase(Locale.ROOT);
+    }
+}
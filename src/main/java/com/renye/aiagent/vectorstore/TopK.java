@@ -0,0 +1,43 @@
+package com.renye.aiagent.vectorstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 固定容量的 Top-K 收集器：内部为按分数排序的小顶堆，堆满后只有比堆顶更高的分数才会进入
+ *
+ * @author 忍
+ */
+public class TopK {
+
+    private final int k;
+    private final PriorityQueue<ScoredNode> heap;
+
+    public TopK(int k) {
+        this.k = Math.max(1, k);
+        this.heap = new PriorityQueue<>(this.k + 1, (a, b) -> Float.compare(a.score(), b.score()));
+    }
+
+    public void offer(int node, float score) {
+        if (heap.size() < k) {
+            heap.add(new ScoredNode(node, score));
+        } else if (score > heap.peek().score()) {
+            heap.poll();
+            heap.add(new ScoredNode(node, score));
+        }
+    }
+
+    public void offer(ScoredNode scoredNode) {
+        offer(scoredNode.node(), scoredNode.score());
+    }
+
+    /**
+     * 当前收集到的结果，按分数从高到低排序
+     */
+    public List<ScoredNode> sorted() {
+        List<ScoredNode> result = new ArrayList<>(heap);
+        result.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return result;
+    }
+}
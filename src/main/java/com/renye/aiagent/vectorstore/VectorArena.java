@@ -0,0 +1,149 @@
+package com.renye.aiagent.vectorstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 堆外的定长向量区：按节点编号顺序追加 float 向量，所有向量首尾相接地存放在若干个大段中，段满后追加新段，已有数据不搬移。
+ * <p>
+ * 两种后备存储：
+ * <ul>
+ *     <li>direct：{@link ByteBuffer#allocateDirect} 分配的进程内存</li>
+ *     <li>mmap：映射到本进程独占的临时文件，由操作系统页缓存承载，内存紧张时脏页写回文件后即可回收，不依赖 swap</li>
+ * </ul>
+ * 无论哪种方式，向量都不是堆上的小对象，不增加 GC 的扫描和复制负担。
+ * <p>
+ * 注意 mmap 不能让同一台机器上的多个进程共享一份向量：各进程入库的顺序由并行流水线决定，节点编号并不一致，
+ * 每个进程只能映射自己的文件，物理内存占用与 direct 相同，检索时还可能多出缺页开销。
+ * 只有在物理内存不足以常驻全部向量、又不希望依赖 swap 时才值得使用，其余情况用 direct。
+ * 文档内容和元数据仍在堆上（见 {@link DocumentColumns}），向量区只把向量移出堆。
+ * 运行环境为 Java 21，MemorySegment 仍是预览特性，这里用 MappedByteBuffer / FloatBuffer 实现；单段不超过 1GB。
+ * 非线程安全，由所属存储的调用方加锁。
+ *
+ * @author 忍
+ */
+public class VectorArena implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorArena.class);
+
+    // 单段字节数上限，MappedByteBuffer 的索引为 int
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final int vectorsPerSegment;
+    private final FileChannel channel;
+    private final Path file;
+    private final List<FloatBuffer> segments = new ArrayList<>();
+    private int dimension = -1;
+    private int size;
+
+    private VectorArena(int vectorsPerSegment, FileChannel channel, Path file) {
+        this.vectorsPerSegment = vectorsPerSegment;
+        this.channel = channel;
+        this.file = file;
+    }
+
+    /**
+     * 进程内存（direct buffer）后备的向量区
+     */
+    public static VectorArena direct(int vectorsPerSegment) {
+        return new VectorArena(vectorsPerSegment, null, null);
+    }
+
+    /**
+     * 文件映射后备的向量区。文件在 directory 下新建，名字唯一，关闭时删除（Linux 上打开后即解除链接，进程异常退出也不会残留）；
+     * 文件只属于当前进程，其他进程既打不开也无从共享，日志中只记录所在目录。
+     */
+    public static VectorArena mapped(Path directory, int vectorsPerSegment) {
+        try {
+            Files.createDirectories(directory);
+            Path file = Files.createTempFile(directory, "vector-arena-", ".bin");
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            log.info("向量区映射到 {} 下本进程独占的临时文件（已解除链接，不跨进程共享）", directory.toAbsolutePath());
+            return new VectorArena(vectorsPerSegment, channel, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建向量区映射文件失败: " + directory, e);
+        }
+    }
+
+    /**
+     * 追加一个向量，节点编号为追加前的 {@link #size()}
+     */
+    public void add(float[] vector) {
+        if (dimension < 0) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不一致: 期望 " + dimension + "，实际 " + vector.length);
+        }
+        int node = size;
+        if (node % vectorsPerSegment == 0) {
+            segments.add(allocateSegment(segments.size()));
+        }
+        segments.get(node / vectorsPerSegment).put((node % vectorsPerSegment) * dimension, vector);
+        size++;
+    }
+
+    private FloatBuffer allocateSegment(int index) {
+        long segmentBytes = (long) vectorsPerSegment * dimension * Float.BYTES;
+        if (segmentBytes > MAX_SEGMENT_BYTES) {
+            throw new IllegalStateException("向量区单段过大: " + segmentBytes + " bytes，请减小每段向量数");
+        }
+        if (channel == null) {
+            return ByteBuffer.allocateDirect((int) segmentBytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        try {
+            // READ_WRITE 映射超出文件末尾时文件会自动扩展
+            return channel.map(FileChannel.MapMode.READ_WRITE, index * segmentBytes, segmentBytes)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("映射向量区文件失败: " + file, e);
+        }
+    }
+
+    /**
+     * 把节点的向量拷贝到 destination（长度至少为维度）
+     */
+    public void get(int node, float[] destination) {
+        segments.get(node / vectorsPerSegment).get((node % vectorsPerSegment) * dimension, destination, 0, dimension);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return Math.max(dimension, 0);
+    }
+
+    public boolean isMapped() {
+        return channel != null;
+    }
+
+    /**
+     * 已分配的堆外字节数
+     */
+    public long bytes() {
+        return (long) segments.size() * vectorsPerSegment * dimension() * Float.BYTES;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.renye.aiagent.vectorstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 向量打分的计算内核：float 点积、int8 点积、float × int8 点积。
+ * <p>
+ * 用 -Psimd 构建（编译 SimdKernel）且 JVM 启动参数带有 --add-modules jdk.incubator.vector 时使用基于 Vector API 的 SIMD 实现，
+ * 否则（或配置了 interview.knowledge-base.vector-simd=false）退回标量循环，两者结果只有浮点累加顺序带来的微小差异。
+ * 启动日志会说明实际使用的内核。性能对比见测试目录下的 VectorMathBenchmark（同样需要 -Psimd）。
+ *
+ * @author 忍
+ */
+public final class VectorMath {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorMath.class);
+
+    /**
+     * 计算内核，数组均为连续存储，用偏移量定位到具体向量
+     */
+    interface Kernel {
+        float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+        int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+        float dotFloatInt8(float[] query, byte[] codes, int codesOffset, int length);
+    }
+
+    // 类加载时按默认值（可用时用 SIMD）选择，VectorStoreConfig 在创建向量存储之前按配置调用一次 configure；
+    // 之后的检索线程都在此之后启动，普通字段即可保证可见
+    private static boolean simd = true;
+    private static Kernel kernel = loadKernel(true);
+
+    private VectorMath() {
+    }
+
+    /**
+     * 按 interview.knowledge-base.vector-simd 选择计算内核，与当前选择相同时不做任何事
+     */
+    public static synchronized void configure(boolean useSimd) {
+        if (useSimd != simd) {
+            simd = useSimd;
+            kernel = loadKernel(useSimd);
+        }
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return kernel.dot(a, 0, b, 0, a.length);
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return kernel.dot(a, aOffset, b, bOffset, length);
+    }
+
+    public static int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return kernel.dotInt8(a, aOffset, b, bOffset, length);
+    }
+
+    public static float dotFloatInt8(float[] query, byte[] codes, int codesOffset, int length) {
+        return kernel.dotFloatInt8(query, codes, codesOffset, length);
+    }
+
+    /**
+     * 返回 L2 归一化后的新数组，零向量原样复制
+     */
+    public static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return vector.clone();
+        }
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * inv;
+        }
+        return normalized;
+    }
+
+    public static String kernelName() {
+        return kernel.getClass().getSimpleName();
+    }
+
+    private static Kernel loadKernel(boolean useSimd) {
+        if (!useSimd) {
+            log.info("向量计算使用标量实现（interview.knowledge-base.vector-simd=false）");
+            return new ScalarKernel();
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.info("未启用 jdk.incubator.vector 模块，向量计算使用标量实现；启动参数加 --add-modules jdk.incubator.vector 可启用SIMD");
+            return new ScalarKernel();
+        }
+        try {
+            Kernel kernel = loadSimdKernel();
+            log.info("向量计算使用 SIMD 实现: {}", kernel);
+            return kernel;
+        } catch (ClassNotFoundException e) {
+            log.info("当前构建未包含 SimdKernel（需 mvn -Psimd 构建），向量计算使用标量实现");
+            return new ScalarKernel();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("加载 SIMD 向量计算内核失败，使用标量实现: {}", e.toString());
+            return new ScalarKernel();
+        }
+    }
+
+    /**
+     * 反射加载 SIMD 内核，模块不存在时不会链接到 SimdKernel 引用的 Vector API 类
+     */
+    static Kernel loadSimdKernel() throws ReflectiveOperationException {
+        return (Kernel) Class.forName("com.renye.aiagent.vectorstore.SimdKernel")
+                .getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,205 @@
+package com.renye.aiagent.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.document.Document;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 知识库向量快照的二进制读写。
+ * <p>
+ * 文件格式（大端序）：
+ * <pre>
+ * int    magic = 'KBVS'
+ * int    version
+ * string embeddingModel
+ * string chunkingSignature
+ * int    dimension
+ * int    fileCount,  重复 fileCount 次: string fileName, string contentHash
+ * int    entryCount, 重复 entryCount 次: string sourceFile, string id, string content, string metadataJson, float[dimension] vector
+ * </pre>
+ * string 编码为 int 字节长度 + UTF-8 字节。读取时整个文件以只读方式 mmap，不经过堆上的输入流缓冲。
+ *
+ * @author 忍
+ */
+public final class VectorSnapshot {
+
+    private static final int MAGIC = 0x4B425653;
+    public static final int VERSION = 2;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    /**
+     * 快照中的一条记录
+     */
+    public record Entry(Document document, float[] vector) {
+    }
+
+    private final String embeddingModel;
+    // 分块参数的摘要，参数变化后文档块边界不同，快照不可复用
+    private final String chunkingSignature;
+    private final int dimension;
+    // 文件名 -> 内容哈希
+    private final Map<String, String> fileHashes;
+    // 文件名 -> 该文件的所有记录
+    private final Map<String, List<Entry>> entriesByFile;
+
+    private VectorSnapshot(String embeddingModel, String chunkingSignature, int dimension, Map<String, String> fileHashes,
+                           Map<String, List<Entry>> entriesByFile) {
+        this.embeddingModel = embeddingModel;
+        this.chunkingSignature = chunkingSignature;
+        this.dimension = dimension;
+        this.fileHashes = fileHashes;
+        this.entriesByFile = entriesByFile;
+    }
+
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
+    public String getChunkingSignature() {
+        return chunkingSignature;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public Map<String, String> getFileHashes() {
+        return fileHashes;
+    }
+
+    public List<Entry> entriesOf(String fileName) {
+        return entriesByFile.getOrDefault(fileName, List.of());
+    }
+
+    /**
+     * 将 store 中的全部文档写成快照。先写临时文件再原子替换，避免写到一半被读到。
+     *
+     * @param sourceFileKey 文档元数据中记录来源文件名的 key
+     */
+    public static void write(Path path, String embeddingModel, String chunkingSignature, Map<String, String> fileHashes,
+                             KnowledgeVectorStore store, String sourceFileKey) throws IOException {
+        List<Document> documents = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        store.forEachEmbedded((document, vector) -> {
+            documents.add(document);
+            vectors.add(vector);
+        });
+        int dimension = vectors.isEmpty() ? 0 : vectors.get(0).length;
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, embeddingModel);
+            writeString(out, chunkingSignature);
+            out.writeInt(dimension);
+            out.writeInt(fileHashes.size());
+            for (Map.Entry<String, String> fileHash : fileHashes.entrySet()) {
+                writeString(out, fileHash.getKey());
+                writeString(out, fileHash.getValue());
+            }
+            out.writeInt(documents.size());
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                Object sourceFile = document.getMetadata().get(sourceFileKey);
+                writeString(out, sourceFile == null ? "" : sourceFile.toString());
+                writeString(out, document.getId());
+                writeString(out, document.getContent());
+                writeString(out, OBJECT_MAPPER.writeValueAsString(document.getMetadata()));
+                float[] vector = vectors.get(i);
+                if (vector.length != dimension) {
+                    throw new IOException("向量维度不一致: 期望 " + dimension + "，实际 " + vector.length);
+                }
+                for (float v : vector) {
+                    out.writeFloat(v);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 以 mmap 方式读取快照
+     *
+     * @throws IOException 文件损坏、版本不匹配或无法读取
+     */
+    public static VectorSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("快照文件过大，无法一次性映射: " + size + " bytes");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("不是有效的知识库快照文件: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("快照版本不匹配: 期望 " + VERSION + "，实际 " + version);
+            }
+            String embeddingModel = readString(buffer);
+            String chunkingSignature = readString(buffer);
+            int dimension = buffer.getInt();
+            int fileCount = buffer.getInt();
+            Map<String, String> fileHashes = new LinkedHashMap<>();
+            for (int i = 0; i < fileCount; i++) {
+                fileHashes.put(readString(buffer), readString(buffer));
+            }
+            int entryCount = buffer.getInt();
+            Map<String, List<Entry>> entriesByFile = new HashMap<>();
+            for (int i = 0; i < entryCount; i++) {
+                String sourceFile = readString(buffer);
+                String id = readString(buffer);
+                String content = readString(buffer);
+                Map<String, Object> metadata = OBJECT_MAPPER.readValue(readString(buffer), METADATA_TYPE);
+                float[] vector = new float[dimension];
+                buffer.asFloatBuffer().get(vector);
+                buffer.position(buffer.position() + dimension * Float.BYTES);
+                entriesByFile.computeIfAbsent(sourceFile, k -> new ArrayList<>())
+                        .add(new Entry(new Document(id, content, metadata), vector));
+            }
+            return new VectorSnapshot(embeddingModel, chunkingSignature, dimension, fileHashes, entriesByFile);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException 等，说明文件被截断
+            throw new IOException("读取知识库快照失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
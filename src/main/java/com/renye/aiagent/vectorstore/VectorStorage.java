@@ -0,0 +1,65 @@
+package com.renye.aiagent.vectorstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * {@link HnswVectorStore} 的向量存储：按节点编号顺序追加归一化后的向量，并提供图索引需要的相似度计算。
+ * <p>
+ * 实现可以用近似表示（如量化）来加速图遍历、降低内存，此时 {@link #isApproximate()} 返回 true，
+ * 由 HnswVectorStore 对候选结果再用 {@link #exactSimilarity} 做一次全精度重排。
+ * 非线程安全，由 HnswVectorStore 的读写锁保护。
+ *
+ * @author 忍
+ */
+public interface VectorStorage extends Closeable {
+
+    /**
+     * 追加一个已归一化的向量，节点编号为追加前的 {@link #size()}
+     */
+    void add(float[] normalizedVector);
+
+    int size();
+
+    /**
+     * 两个节点之间的相似度（可以是近似值），用于建图
+     */
+    float similarity(int a, int b);
+
+    /**
+     * 查询向量与节点之间的相似度（可以是近似值），用于图遍历
+     */
+    HnswIndex.QuerySimilarity query(float[] normalizedQuery);
+
+    /**
+     * 查询向量与节点之间的全精度相似度
+     */
+    float exactSimilarity(float[] normalizedQuery, int node);
+
+    /**
+     * 节点的全精度向量（副本或只读共享数组，调用方不得修改）
+     */
+    float[] vector(int node);
+
+    /**
+     * {@link #query} 是否为近似值，为 true 时检索结果需要全精度重排
+     */
+    boolean isApproximate();
+
+    /**
+     * 向量数据占用的堆内字节数（估算）
+     */
+    long heapBytes();
+
+    /**
+     * 向量数据占用的堆外字节数
+     */
+    long offHeapBytes();
+
+    /**
+     * 释放堆外或文件映射资源，堆内实现无需处理
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,133 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.ChatStreamConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * 合并窗口按虚拟时间推进，不依赖真实的定时器
+ *
+ * @author 忍
+ */
+class ChatResponseCoalescerTest {
+
+    private static final Duration WINDOW = Duration.ofMillis(30);
+
+    private final ChatResponseCoalescer coalescer = new ChatResponseCoalescer(config(4));
+
+    @Test
+    void firstContentChunkIsEmittedImmediately() {
+        TestPublisher<ChatResponse> upstream = TestPublisher.create();
+
+        StepVerifier.withVirtualTime(() -> coalescer.coalesce(upstream.flux()))
+                .then(() -> upstream.next(response("")))
+                // 首个有内容的增量之前的空响应（只带 role）原样发送
+                .assertNext(response -> assertEquals("", text(response)))
+                .then(() -> upstream.next(response("你")))
+                .assertNext(response -> assertEquals("你", text(response)))
+                .then(() -> upstream.next(response("好")))
+                // 之后的增量等窗口结束才发送
+                .expectNoEvent(WINDOW.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .assertNext(response -> assertEquals("好", text(response)))
+                .then(upstream::complete)
+                .verifyComplete();
+    }
+
+    @Test
+    void smallDeltasAreMergedWithinWindow() {
+        TestPublisher<ChatResponse> upstream = TestPublisher.create();
+
+        StepVerifier.withVirtualTime(() -> coalescer.coalesce(upstream.flux()))
+                .then(() -> upstream.next(response("H")))
+                .assertNext(response -> assertEquals("H", text(response)))
+                .then(() -> upstream.next(response("a"), response("s"), response("h")))
+                .expectNoEvent(Duration.ofMillis(10))
+                .thenAwait(WINDOW)
+                .assertNext(response -> assertEquals("ash", text(response)))
+                // 攒够 max-deltas 个增量立即发送，不等窗口结束
+                .then(() -> upstream.next(response("M"), response("a"), response("p"), response("!")))
+                .assertNext(response -> assertEquals("Map!", text(response)))
+                .then(upstream::complete)
+                .verifyComplete();
+    }
+
+    @Test
+    void lastChunkFinishReasonAndMetadataAreKept() {
+        TestPublisher<ChatResponse> upstream = TestPublisher.create();
+        ChatResponse middle = new ChatResponse(List.of(new Generation(
+                new AssistantMessage("b", Map.of("first", 1, "shared", "old")))));
+        ChatResponse last = new ChatResponse(List.of(new Generation(
+                new AssistantMessage("c", Map.of("shared", "new")), ChatGenerationMetadata.from("STOP", null))));
+
+        StepVerifier.withVirtualTime(() -> coalescer.coalesce(upstream.flux()))
+                .then(() -> upstream.next(response("a")))
+                .assertNext(response -> assertEquals("a", text(response)))
+                // 流结束时窗口内剩余的增量立即发送
+                .then(() -> upstream.next(middle, last).complete())
+                .assertNext(response -> {
+                    assertEquals("bc", text(response));
+                    assertEquals("STOP", response.getResult().getMetadata().getFinishReason());
+                    // usage 等响应元数据取最后一个响应的
+                    assertSame(last.getMetadata(), response.getMetadata());
+                    // 消息元数据按顺序合并，同名键取靠后的
+                    Map<String, Object> metadata = response.getResult().getOutput().getMetadata();
+                    assertEquals(1, metadata.get("first"));
+                    assertEquals("new", metadata.get("shared"));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void cancellationPropagatesUpstream() {
+        TestPublisher<ChatResponse> upstream = TestPublisher.create();
+
+        StepVerifier.withVirtualTime(() -> coalescer.coalesce(upstream.flux()))
+                .then(() -> upstream.next(response("你")))
+                .assertNext(response -> assertEquals("你", text(response)))
+                .then(() -> upstream.next(response("好")))
+                .thenCancel()
+                .verify();
+
+        upstream.assertCancelled();
+    }
+
+    @Test
+    void disabledCoalescerPassesResponsesThrough() {
+        ChatStreamConfig config = config(4);
+        config.getCoalesce().setEnabled(false);
+        ChatResponseCoalescer disabled = new ChatResponseCoalescer(config);
+
+        StepVerifier.create(disabled.coalesce(Flux.just(response("a"), response("b"), response("c"))))
+                .expectNextCount(3)
+                .verifyComplete();
+    }
+
+    private static ChatStreamConfig config(int maxDeltas) {
+        ChatStreamConfig config = new ChatStreamConfig();
+        config.getCoalesce().setWindowMillis(WINDOW.toMillis());
+        config.getCoalesce().setMaxDeltas(maxDeltas);
+        return config;
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static String text(ChatResponse response) {
+        return response.getResult().getOutput().getText();
+    }
+}
@@ -0,0 +1,112 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.util.TokenCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author 忍
+ */
+class ContextPackerTest {
+
+    private static final String MODEL = "qwen-turbo";
+
+    @Test
+    void disabledPackerKeepsEveryPassage() {
+        RagConfig config = config(100, 500, 20);
+        config.getContext().setEnabled(false);
+        ContextPacker packer = new ContextPacker(config, MODEL);
+
+        RetrievedContext context = packer.pack("问题", List.of(document("a", "第一段。"), document("b", "第一段。")));
+
+        assertEquals(List.of("a", "b"), context.documentIds());
+        assertEquals(2, countOf(context.context(), "第一段。"));
+    }
+
+    @Test
+    void duplicateSentencesAreNotRepeated() {
+        ContextPacker packer = new ContextPacker(config(1000, 500, 5), MODEL);
+        String shared = "HashMap 在 JDK 8 中使用数组、链表和红黑树。";
+        Document first = document("a", shared + "扩容时容量翻倍，元素重新分布到新数组。");
+        Document duplicate = document("b", shared);
+        Document third = document("c", shared + "树化阈值是 8，链表长度超过阈值且容量不小于 64 时转为红黑树。");
+
+        RetrievedContext context = packer.pack("HashMap 扩容", List.of(first, duplicate, third));
+
+        // b 去重后没有剩余内容，整块跳过
+        assertEquals(List.of("a", "c"), context.documentIds());
+        assertEquals(1, countOf(context.context(), "树化阈值"));
+        assertEquals(1, countOf(context.context(), shared));
+    }
+
+    @Test
+    void totalTokensStayWithinBudget() {
+        int budget = 300;
+        ContextPacker packer = new ContextPacker(config(budget, 120, 20), MODEL);
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            documents.add(document("d" + i, "第" + i + "块资料的第一句话。" + "这是第" + i + "块资料中较长的说明文字，用来占用预算。".repeat(4)));
+        }
+
+        RetrievedContext context = packer.pack("资料", documents);
+
+        assertFalse(context.documentIds().isEmpty());
+        assertTrue(context.documentIds().size() < documents.size());
+        assertTrue(TokenCounter.estimate(context.context()) <= budget,
+                "上下文 " + TokenCounter.estimate(context.context()) + " tokens 超过预算 " + budget);
+    }
+
+    @Test
+    void oversizedPassageKeepsMostRelevantSentences() {
+        // 单块上限只放得下一句
+        ContextPacker packer = new ContextPacker(config(1000, 20, 5), MODEL);
+        String passage = "垃圾回收器有很多种类型，各有适用场景。"
+                + "G1 把堆划分为多个大小相同的 Region。"
+                + "CMS 以最短停顿时间为目标，已在新版本中移除。"
+                + "ZGC 的停顿时间通常不超过一毫秒。";
+
+        RetrievedContext context = packer.pack("G1 Region 划分", List.of(document("gc", passage)));
+
+        String text = context.context();
+        assertTrue(text.contains("G1 把堆划分为多个大小相同的 Region。"));
+        assertTrue(text.contains("……"), "省略的句子应以省略号标出: " + text);
+        assertFalse(text.contains("ZGC"));
+    }
+
+    @Test
+    void passageWithoutPunctuationIsTruncated() {
+        ContextPacker packer = new ContextPacker(config(1000, 30, 5), MODEL);
+
+        RetrievedContext context = packer.pack("问题", List.of(document("raw", "没有标点的长段落".repeat(20))));
+
+        assertEquals(List.of("raw"), context.documentIds());
+        assertTrue(context.context().endsWith("……\""));
+    }
+
+    private static int countOf(String text, String part) {
+        return text.split(Pattern.quote(part), -1).length - 1;
+    }
+
+    private static RagConfig config(int budgetTokens, int maxPassageTokens, int minPassageTokens) {
+        RagConfig config = new RagConfig();
+        RagConfig.Context context = config.getContext();
+        context.setDefaultBudgetTokens(budgetTokens);
+        context.setMaxPassageTokens(maxPassageTokens);
+        context.setMinPassageTokens(minPassageTokens);
+        return config;
+    }
+
+    private static Document document(String id, String content) {
+        return new Document(id, content, Map.of("sourceFile", id + ".pdf"));
+    }
+}
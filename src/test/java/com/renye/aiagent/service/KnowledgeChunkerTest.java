@@ -0,0 +1,162 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.util.TokenCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author 忍
+ */
+class KnowledgeChunkerTest {
+
+    @Test
+    void chunksRespectTokenBudgetAndOverlap() {
+        KnowledgeChunker chunker = new KnowledgeChunker(30, 0, 10);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            // 每句 8 个 token，每块最多 3 句，重叠 1 句
+            text.append("第").append((char) ('甲' + i)).append("句测试分块。");
+        }
+
+        List<String> chunks = chunker.split(text.toString());
+
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(TokenCounter.estimate(chunk) <= 30, "块超过预算: " + chunk);
+        }
+        for (int i = 1; i < chunks.size(); i++) {
+            // 下一块以上一块的最后一句开头
+            String previous = chunks.get(i - 1).strip();
+            String lastSentence = previous.substring(previous.lastIndexOf('。', previous.length() - 2) + 1);
+            assertTrue(chunks.get(i).startsWith(lastSentence), "第 " + i + " 块没有保留重叠句子");
+        }
+    }
+
+    @Test
+    void headingStartsNewChunkWithoutOverlap() {
+        KnowledgeChunker chunker = new KnowledgeChunker(200, 5, 20);
+        String text = "第一章 集合框架\nHashMap 基于数组和链表实现，JDK 8 引入红黑树。\n"
+                + "第二章 并发\nConcurrentHashMap 使用 CAS 和 synchronized。\n";
+
+        List<String> chunks = chunker.split(text);
+
+        assertEquals(2, chunks.size());
+        assertTrue(chunks.get(0).startsWith("第一章 集合框架"));
+        assertTrue(chunks.get(1).startsWith("第二章 并发"));
+    }
+
+    @Test
+    void longRunWithoutPunctuationIsCutAtWordBoundaries() {
+        KnowledgeChunker chunker = new KnowledgeChunker(16, 0, 0);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            line.append("identifier").append(i).append(' ');
+        }
+        String text = line.toString().strip();
+
+        List<String> chunks = chunker.split(text);
+
+        assertTrue(chunks.size() > 10);
+        // 切分不丢失、不合并任何字符
+        assertEquals(text + "\n", String.join("", chunks));
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i);
+            assertTrue(TokenCounter.estimate(chunk) <= 16, "块超过预算: " + chunk);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.endsWith(" "), "单词被切成两半: " + chunk);
+            }
+        }
+    }
+
+    @Test
+    void longCjkRunIsHardCutAtBudget() {
+        KnowledgeChunker chunker = new KnowledgeChunker(50, 0, 0);
+        String text = "字".repeat(175);
+
+        List<String> chunks = chunker.split(text);
+
+        assertEquals(4, chunks.size());
+        assertEquals(50, TokenCounter.estimate(chunks.get(0)));
+        assertEquals(25, TokenCounter.estimate(chunks.get(3)));
+    }
+
+    @Test
+    void veryLongRunIsSplitQuickly() {
+        KnowledgeChunker chunker = new KnowledgeChunker(512, 0, 0);
+        String text = "abcdefghij".repeat(200_000);
+
+        long start = System.nanoTime();
+        List<String> chunks = chunker.split(text);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(text + "\n", String.join("", chunks));
+        // 逐字增量计数，2MB 文本应远低于 1 秒；按片段重新估算的平方复杂度需要数分钟
+        assertTrue(elapsedMillis < 2_000, "耗时 " + elapsedMillis + "ms");
+    }
+
+    @Test
+    void shortTailIsMergedIntoPreviousChunkWhenItFits() {
+        KnowledgeChunker chunker = new KnowledgeChunker(200, 20, 0);
+        // 新标题在上一块已满 min-tokens 时开启新块，但标题下只有很短的内容
+        String text = "第一章 集合\nHashMap 基于数组和链表实现，JDK 8 在链表过长时转为红黑树，查询复杂度降为对数级别。\n"
+                + "第二章 并发\n略。\n";
+
+        List<String> chunks = chunker.split(text);
+
+        assertEquals(1, chunks.size());
+        assertTrue(chunks.get(0).endsWith("第二章 并发\n略。\n"));
+    }
+
+    @Test
+    void shortTailStaysSeparateWhenMergeWouldExceedBudget() {
+        KnowledgeChunker chunker = new KnowledgeChunker(20, 8, 0);
+        String text = "一二三四五六七八九十一二三四五六七八。尾巴。";
+
+        List<String> chunks = chunker.split(text);
+
+        // 合并后 22 个 token，超过 max-tokens，尾块单独成块
+        assertEquals(List.of("一二三四五六七八九十一二三四五六七八。", "尾巴。\n"), chunks);
+        for (String chunk : chunks) {
+            assertTrue(TokenCounter.estimate(chunk) <= 20, "块超过预算: " + chunk);
+        }
+    }
+
+    @Test
+    void chunkIdsAreStableAcrossRuns() {
+        KnowledgeChunker chunker = new KnowledgeChunker(10, 0, 0);
+        Document page = new Document("第一句话在这里。第二句话在这里。", Map.of("page_number", 3, "sourceFile", "a.pdf"));
+        Document otherPage = new Document("第一句话在这里。第二句话在这里。", Map.of("page_number", 4, "sourceFile", "a.pdf"));
+
+        List<String> first = chunker.split(List.of(page)).stream().map(Document::getId).toList();
+        List<String> second = chunker.split(List.of(page)).stream().map(Document::getId).toList();
+        List<String> other = chunker.split(List.of(otherPage)).stream().map(Document::getId).toList();
+
+        // 同一文件、同一页重新分块得到相同的id，不同页、不同序号的id互不相同
+        assertEquals(first, second);
+        assertEquals(2, first.stream().distinct().count());
+        assertTrue(first.stream().noneMatch(other::contains));
+    }
+
+    @Test
+    void pageMetadataIsInheritedWithChunkIndex() {
+        KnowledgeChunker chunker = new KnowledgeChunker(10, 0, 0);
+        Document page = new Document("第一句话在这里。第二句话在这里。", Map.of("page_number", 3, "sourceFile", "a.pdf"));
+
+        List<Document> chunks = chunker.split(List.of(page));
+
+        assertEquals(2, chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            Map<String, Object> metadata = chunks.get(i).getMetadata();
+            assertEquals(3, metadata.get("page_number"));
+            assertEquals("a.pdf", metadata.get("sourceFile"));
+            assertEquals(i, metadata.get(KnowledgeChunker.CHUNK_INDEX_METADATA_KEY));
+        }
+        assertTrue(chunker.split("   ").isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+package com.renye.aiagent.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 检索结果合并逻辑（纯函数部分）的测试
+ *
+ * @author 忍
+ */
+class KnowledgeRetrieverTest {
+
+    @Test
+    void reciprocalRankFusionRewardsAgreement() {
+        List<Document> vector = List.of(document("a"), document("b"), document("c"));
+        List<Document> lexical = List.of(document("c"), document("d"), document("b"));
+
+        List<Document> fused = KnowledgeRetriever.reciprocalRankFusion(vector, lexical, 60, 3);
+
+        // c: 1/63 + 1/61，b: 1/62 + 1/63，a: 1/61
+        assertEquals(List.of("c", "b", "a"), ids(fused));
+        assertEquals(1.0 / 63 + 1.0 / 61, score(fused.get(0)), 1e-12);
+        assertEquals(1.0 / 61, score(fused.get(2)), 1e-12);
+    }
+
+    @Test
+    void reciprocalRankFusionWithOneSideEmpty() {
+        List<Document> lexical = List.of(document("x"), document("y"));
+
+        List<Document> fused = KnowledgeRetriever.reciprocalRankFusion(List.of(), lexical, 60, 5);
+
+        assertEquals(List.of("x", "y"), ids(fused));
+    }
+
+    @Test
+    void reciprocalRankFusionKeepsFirstSeenDocument() {
+        Document fromVector = new Document("a", "向量检索返回的内容", Map.of("distance", 0.1f));
+        Document fromLexical = new Document("a", "BM25 返回的内容", Map.of("bm25_score", 3.2f));
+
+        List<Document> fused = KnowledgeRetriever.reciprocalRankFusion(List.of(fromVector), List.of(fromLexical), 60, 1);
+
+        assertEquals("向量检索返回的内容", fused.get(0).getContent());
+        assertEquals(2.0 / 61, score(fused.get(0)), 1e-12);
+    }
+
+    @Test
+    void quotaMergeKeepsWeakTagFromBeingCrowdedOut() {
+        List<Document> strong = List.of(scored("a1", 0.9), scored("a2", 0.85), scored("a3", 0.8), scored("a4", 0.75));
+        List<Document> weak = List.of(scored("b1", 0.3), scored("b2", 0.2));
+
+        List<Document> merged = KnowledgeRetriever.mergeWithQuotas(List.of(strong, weak), 2, 4);
+
+        // 按原始分数合并会全部来自 a；按配额每个标签各保留 2 条，再按标签内归一化分数排序
+        assertEquals(List.of("a1", "b1", "a2", "b2"), ids(merged));
+        // rag_score 改写为标签内归一化分数，跨标签可比
+        assertEquals(1.0, score(merged.get(0)), 1e-9);
+        assertEquals(1.0, score(merged.get(1)), 1e-9);
+        assertEquals((0.85 - 0.75) / (0.9 - 0.75), score(merged.get(2)), 1e-9);
+        assertEquals(0.0, score(merged.get(3)), 1e-9);
+    }
+
+    @Test
+    void quotaMergeFillsRemainingSlotsByNormalizedScore() {
+        List<Document> first = List.of(scored("a1", 0.9), scored("a2", 0.8), scored("a3", 0.1));
+        List<Document> second = List.of(scored("b1", 0.5));
+
+        List<Document> merged = KnowledgeRetriever.mergeWithQuotas(List.of(first, second), 1, 3);
+
+        assertEquals(List.of("a1", "b1", "a2"), ids(merged));
+    }
+
+    @Test
+    void quotaMergeDeduplicatesDocumentsSharedByTags() {
+        List<Document> first = List.of(scored("x", 0.9), scored("a", 0.5));
+        List<Document> second = List.of(scored("x", 0.2), scored("b", 0.1));
+
+        List<Document> merged = KnowledgeRetriever.mergeWithQuotas(List.of(first, second), 2, 4);
+
+        assertEquals(List.of("x", "a", "b"), ids(merged));
+        // 同一文档取各标签下归一化分数的最大值
+        assertEquals(1.0, score(merged.get(0)), 1e-9);
+        assertEquals(List.of(), KnowledgeRetriever.mergeWithQuotas(List.of(List.of(), List.of()), 2, 4));
+    }
+
+    static Document document(String id) {
+        return new Document(id, "content " + id, Map.of());
+    }
+
+    static Document scored(String id, double score) {
+        return new Document(id, "content " + id, Map.of(KnowledgeRetriever.SCORE_METADATA_KEY, score));
+    }
+
+    static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+    static double score(Document document) {
+        return ((Number) document.getMetadata().get(KnowledgeRetriever.SCORE_METADATA_KEY)).doubleValue();
+    }
+}
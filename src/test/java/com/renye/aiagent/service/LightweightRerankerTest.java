@@ -0,0 +1,77 @@
+package com.renye.aiagent.service;
+
+import com.renye.aiagent.config.RagConfig;
+import com.renye.aiagent.vectorstore.TagIndex;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.renye.aiagent.service.KnowledgeRetrieverTest.ids;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author 忍
+ */
+class LightweightRerankerTest {
+
+    private static final String QUERY = "Java HashMap ConcurrentHashMap 线程池";
+    private static final List<String> TAGS = List.of("java", "redis");
+
+    private final LightweightReranker reranker = new LightweightReranker(new RagConfig());
+
+    @Test
+    void lowScoringTagKeepsItsSlotAfterRerank() {
+        // 按标签分别检索、合并后的候选，rag_score 已是标签内归一化分数；redis 标签只有一个候选且与问题无词项重叠
+        List<Document> candidates = List.of(
+                tagged("j1", "Java HashMap 扩容机制：数组加链表，JDK 8 引入红黑树。", "java", 1.0),
+                tagged("j2", "Java ConcurrentHashMap 使用 CAS 和 synchronized 保证线程安全。", "java", 0.9),
+                tagged("j3", "Java 线程池的核心参数：核心线程数、最大线程数和阻塞队列。", "java", 0.8),
+                tagged("r1", "持久化方式有 RDB 快照和 AOF 日志两种。", "redis", 0.0));
+
+        List<Document> unrestricted = reranker.rerank(QUERY, TAGS, candidates, 2, 0);
+        List<Document> reranked = reranker.rerank(QUERY, TAGS, candidates, 2, KnowledgeRetriever.perTagQuota(2, TAGS.size()));
+
+        // 不按标签分配名额时 redis 被挤掉
+        assertFalse(ids(unrestricted).contains("r1"), "对照组应全部来自 java: " + ids(unrestricted));
+        // 第一个名额自由竞争，给了 java；剩余名额只够补齐 redis 的配额
+        assertEquals(2, reranked.size());
+        assertTrue(reranked.get(0).getId().startsWith("j"));
+        assertEquals("r1", reranked.get(1).getId());
+    }
+
+    @Test
+    void quotaIsCappedByAvailableCandidates() {
+        // redis 没有候选时不占名额，剩余名额照常按 MMR 分配
+        List<Document> candidates = List.of(
+                tagged("j1", "Java HashMap 扩容机制：数组加链表，JDK 8 引入红黑树。", "java", 1.0),
+                tagged("j2", "Java ConcurrentHashMap 使用 CAS 和 synchronized 保证线程安全。", "java", 0.9),
+                tagged("j3", "Java 线程池的核心参数：核心线程数、最大线程数和阻塞队列。", "java", 0.8));
+
+        List<Document> reranked = reranker.rerank(QUERY, TAGS, candidates, 2, 1);
+
+        assertEquals(2, reranked.size());
+        assertEquals(2, ids(reranked).stream().distinct().count());
+    }
+
+    @Test
+    void documentCoveringSeveralTagsFillsEachQuota() {
+        List<Document> candidates = List.of(
+                tagged("j1", "Java HashMap 扩容机制：数组加链表，JDK 8 引入红黑树。", "java", 1.0),
+                tagged("both", "用 Java 客户端 Jedis 连接池访问 Redis。", "java,redis", 0.2),
+                tagged("r1", "持久化方式有 RDB 快照和 AOF 日志两种。", "redis", 0.0));
+
+        List<Document> reranked = reranker.rerank(QUERY, TAGS, candidates, 2, 1);
+
+        // 不论第一个名额给谁，两个标签都要有文档块
+        assertEquals(2, reranked.size());
+        assertTrue(ids(reranked).contains("both") || ids(reranked).contains("r1"), "redis 没有名额: " + ids(reranked));
+    }
+
+    private static Document tagged(String id, String content, String tags, double score) {
+        return new Document(id, content, Map.of(TagIndex.TAG_METADATA_KEY, tags, KnowledgeRetriever.SCORE_METADATA_KEY, score));
+    }
+}
@@ -0,0 +1,100 @@
+package com.renye.aiagent.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.renye.aiagent.dto.openai.OpenAIChatCompletionChunk;
+import com.renye.aiagent.dto.openai.OpenAIDelta;
+import com.renye.aiagent.dto.openai.OpenAIStreamChoice;
+import com.renye.aiagent.dto.openai.OpenAIUsage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * OpenAIChunkWriter 的输出必须与 NON_NULL 配置的 ObjectMapper 序列化 OpenAIChatCompletionChunk 逐字节一致
+ *
+ * @author 忍
+ */
+class OpenAIChunkWriterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private static final String STREAM_ID = "chatcmpl-0f3c9a";
+    private static final long CREATED = 1_729_238_400L;
+
+    @Test
+    void roleOnlyFirstChunk() throws Exception {
+        assertParity("qwen-turbo", "assistant", "", null, null);
+        assertParity("qwen-turbo", "assistant", null, null, null);
+    }
+
+    @Test
+    void plainAndChineseContent() throws Exception {
+        assertParity("qwen-turbo", null, "HashMap 在 JDK 8 中使用数组 + 链表 + 红黑树。", null, null);
+    }
+
+    @Test
+    void quotesBackslashesAndControlCharacters() throws Exception {
+        assertParity("qwen-turbo", null, "say \"hi\"\\n\n\r\t\b\f end", null, null);
+        StringBuilder controls = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            controls.append(c);
+        }
+        controls.append('\u007f').append('\u2028').append('\u2029');
+        assertParity("qwen-turbo", null, controls.toString(), null, null);
+    }
+
+    @Test
+    void surrogatePairsAndHtmlCharacters() throws Exception {
+        // emoji 是代理对；< > & ' / 在默认配置下不转义
+        assertParity("qwen-turbo", null, "😀 👍🏽 <b>a & b</b> it's a/b", null, null);
+    }
+
+    @Test
+    void finishReasonOnlyChunk() throws Exception {
+        assertParity("qwen-turbo", null, null, "stop", null);
+    }
+
+    @Test
+    void finishChunkWithUsage() throws Exception {
+        assertParity("qwen-turbo", null, null, "length", new OpenAIUsage(1234, 56, 1290));
+        assertParity("qwen-turbo", null, "最后一段", "stop", new OpenAIUsage(0, 0, 0));
+    }
+
+    @Test
+    void nullModelIsOmitted() throws Exception {
+        assertParity(null, "assistant", "hi", null, null);
+    }
+
+    @Test
+    void specialCharactersInPrefix() throws Exception {
+        OpenAIChunkWriter writer = new OpenAIChunkWriter("id-\"x\"", CREATED, "model\\中文");
+        OpenAIChatCompletionChunk chunk = new OpenAIChatCompletionChunk("id-\"x\"", CREATED, "model\\中文",
+                List.of(new OpenAIStreamChoice(0, new OpenAIDelta(null, "a"), null)), null, null);
+        assertEquals(MAPPER.writeValueAsString(chunk), writer.write(null, "a", null, null));
+    }
+
+    @Test
+    void writerIsReusableAcrossChunks() throws Exception {
+        OpenAIChunkWriter writer = new OpenAIChunkWriter(STREAM_ID, CREATED, "qwen-turbo");
+        String first = writer.write("assistant", "很长的第一段内容，用来撑大复用的缓冲区", null, null);
+        String second = writer.write(null, "短", null, null);
+        assertEquals(expected("qwen-turbo", "assistant", "很长的第一段内容，用来撑大复用的缓冲区", null, null), first);
+        assertEquals(expected("qwen-turbo", null, "短", null, null), second);
+    }
+
+    private static void assertParity(String model, String role, String content, String finishReason, OpenAIUsage usage)
+            throws Exception {
+        OpenAIChunkWriter writer = new OpenAIChunkWriter(STREAM_ID, CREATED, model);
+        assertEquals(expected(model, role, content, finishReason, usage), writer.write(role, content, finishReason, usage));
+    }
+
+    private static String expected(String model, String role, String content, String finishReason, OpenAIUsage usage)
+            throws Exception {
+        OpenAIChatCompletionChunk chunk = new OpenAIChatCompletionChunk(STREAM_ID, CREATED, model,
+                List.of(new OpenAIStreamChoice(0, new OpenAIDelta(role, content), finishReason)), null, usage);
+        return MAPPER.writeValueAsString(chunk);
+    }
+}
@@ -0,0 +1,45 @@
+package com.renye.aiagent.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author 忍
+ */
+class TextTokenizerTest {
+
+    @Test
+    void englishWordsAreLowercasedAndQualifiedNamesSplit() {
+        assertEquals(List.of("java", "util", "concurrenthashmap", "max_value"),
+                TextTokenizer.tokenize("java.util.ConcurrentHashMap MAX_VALUE"));
+    }
+
+    @Test
+    void trailingPlusAndHashAreKept() {
+        assertEquals(List.of("c++", "c#", "java"), TextTokenizer.tokenize("C++、C#、Java"));
+    }
+
+    @Test
+    void cjkRunsProduceUnigramsAndBigrams() {
+        assertEquals(List.of("线", "线程", "程", "程安", "安", "安全", "全"), TextTokenizer.tokenize("线程安全"));
+        assertEquals(List.of("锁"), TextTokenizer.tokenize("锁"));
+    }
+
+    @Test
+    void singleCharacterQueryMatchesInsideLongerRun() {
+        // 单字查询词必须出现在长句的词项中，否则 BM25 永远命中不了
+        assertTrue(TextTokenizer.tokenize("乐观锁与悲观锁").contains("锁"));
+    }
+
+    @Test
+    void mixedTextAndEdgeCases() {
+        assertEquals(List.of("hashmap", "线", "线程", "程", "程不", "不", "不安", "安", "安全", "全"),
+                TextTokenizer.tokenize("HashMap线程不安全！"));
+        assertTrue(TextTokenizer.tokenize(null).isEmpty());
+        assertTrue(TextTokenizer.tokenize("，。！ ... ").isEmpty());
+    }
+}
@@ -0,0 +1,111 @@
+package com.renye.aiagent.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author 忍
+ */
+class Bm25IndexTest {
+
+    @Test
+    void ranksExactTermMatchesFirst() {
+        Map<String, Document> store = new HashMap<>();
+        Bm25Index index = new Bm25Index(store::get);
+        add(index, store, document("a", "HashMap 在 JDK 8 中使用数组加链表加红黑树", "java"));
+        add(index, store, document("b", "ConcurrentHashMap 使用 CAS 和 synchronized 保证线程安全", "java"));
+        add(index, store, document("c", "Redis 的持久化方式有 RDB 和 AOF", "redis"));
+
+        List<Document> results = index.search("ConcurrentHashMap 线程安全", 3, null);
+        assertEquals("b", results.get(0).getId());
+        assertTrue(results.stream().noneMatch(document -> document.getId().equals("c")));
+        double score = ((Number) results.get(0).getMetadata().get(Bm25Index.SCORE_METADATA_KEY)).doubleValue();
+        assertTrue(score > 0);
+    }
+
+    @Test
+    void singleCharacterQueryMatches() {
+        Map<String, Document> store = new HashMap<>();
+        Bm25Index index = new Bm25Index(store::get);
+        add(index, store, document("a", "乐观锁与悲观锁的区别", "java"));
+        add(index, store, document("b", "数据库索引的最左前缀原则", "mysql"));
+
+        List<Document> results = index.search("锁", 3, null);
+        assertEquals(1, results.size());
+        assertEquals("a", results.get(0).getId());
+    }
+
+    @Test
+    void tagFilterRestrictsCandidates() {
+        Map<String, Document> store = new HashMap<>();
+        Bm25Index index = new Bm25Index(store::get);
+        add(index, store, document("a", "Redis 缓存穿透与缓存雪崩", "redis"));
+        add(index, store, document("b", "本地缓存 Caffeine 的淘汰策略", "java,cache"));
+
+        Filter.Expression javaOnly = new Filter.Expression(Filter.ExpressionType.EQ,
+                new Filter.Key(TagIndex.TAG_METADATA_KEY), new Filter.Value("java"));
+        List<Document> results = index.search("缓存", 3, javaOnly);
+        assertEquals(1, results.size());
+        assertEquals("b", results.get(0).getId());
+    }
+
+    @Test
+    void replacedDocumentIsTombstoned() {
+        Map<String, Document> store = new HashMap<>();
+        Bm25Index index = new Bm25Index(store::get);
+        add(index, store, document("a", "volatile 保证可见性", "java"));
+        add(index, store, document("a", "synchronized 保证原子性", "java"));
+
+        assertEquals(1, index.size());
+        assertTrue(index.search("volatile", 3, null).isEmpty());
+        List<Document> results = index.search("synchronized", 3, null);
+        assertEquals(1, results.size());
+        assertEquals("synchronized 保证原子性", results.get(0).getContent());
+    }
+
+    @Test
+    void hitsMissingFromStoreAreSkipped() {
+        Map<String, Document> store = new HashMap<>();
+        Bm25Index index = new Bm25Index(store::get);
+        add(index, store, document("a", "线程池的拒绝策略", "java"));
+        store.remove("a");
+
+        assertTrue(index.search("线程池", 3, null).isEmpty());
+    }
+
+    @Test
+    void ownsDocumentsWithoutResolver() {
+        Bm25Index index = new Bm25Index();
+        index.add(List.of(document("a", "JVM 垃圾回收器 G1", "jvm")));
+
+        List<Document> results = index.search("G1", 3, null);
+        assertEquals(1, results.size());
+        assertEquals("jvm", results.get(0).getMetadata().get(TagIndex.TAG_METADATA_KEY));
+    }
+
+    @Test
+    void noMatchOrEmptyIndexReturnsEmpty() {
+        Bm25Index index = new Bm25Index();
+        assertTrue(index.search("anything", 3, null).isEmpty());
+        index.add(List.of(document("a", "Kafka 分区与副本", "mq")));
+        assertTrue(index.search("zookeeper", 3, null).isEmpty());
+    }
+
+    private static void add(Bm25Index index, Map<String, Document> store, Document document) {
+        // 与 DocumentLoadingService 一致：先写入 VectorStore，再写入 BM25 索引
+        store.put(document.getId(), document);
+        index.add(List.of(document));
+    }
+
+    private static Document document(String id, String content, String tags) {
+        return new Document(id, content, Map.of(TagIndex.TAG_METADATA_KEY, tags));
+    }
+}
@@ -0,0 +1,114 @@
+package com.renye.aiagent.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * embedding 缓存重新打开后应能读回写入的向量；日志尾部残缺（进程在写入中途退出）时截掉残缺记录，之前的记录不受影响
+ *
+ * @author 忍
+ */
+class EmbeddingCacheTest {
+
+    private static final String MODEL = "text-embedding-v2";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripAcrossReopen() throws IOException {
+        Path path = tempDir.resolve("cache/embeddings.log");
+        try (EmbeddingCache cache = new EmbeddingCache(path)) {
+            cache.put(MODEL, "HashMap 的扩容机制", new float[]{0.1f, 0.2f, 0.3f});
+            cache.put(MODEL, "volatile", new float[]{-1f, 0f, 1f});
+            assertArrayEquals(new float[]{0.1f, 0.2f, 0.3f}, cache.get(MODEL, "HashMap 的扩容机制"));
+        }
+        try (EmbeddingCache cache = new EmbeddingCache(path)) {
+            assertEquals(2, cache.size());
+            assertArrayEquals(new float[]{0.1f, 0.2f, 0.3f}, cache.get(MODEL, "HashMap 的扩容机制"));
+            assertArrayEquals(new float[]{-1f, 0f, 1f}, cache.get(MODEL, "volatile"));
+            assertNull(cache.get(MODEL, "未写入的文本"));
+            assertEquals(2, cache.getHits());
+            assertEquals(1, cache.getMisses());
+        }
+    }
+
+    @Test
+    void keyIncludesModel() throws IOException {
+        try (EmbeddingCache cache = new EmbeddingCache(tempDir.resolve("embeddings.log"))) {
+            cache.put(MODEL, "text", new float[]{1f});
+            assertNull(cache.get("another-model", "text"));
+        }
+    }
+
+    @Test
+    void duplicatePutIsIgnored() throws IOException {
+        Path path = tempDir.resolve("embeddings.log");
+        try (EmbeddingCache cache = new EmbeddingCache(path)) {
+            cache.put(MODEL, "text", new float[]{1f, 2f});
+            long size = Files.size(path);
+            cache.put(MODEL, "text", new float[]{3f, 4f});
+            assertEquals(size, Files.size(path));
+            assertArrayEquals(new float[]{1f, 2f}, cache.get(MODEL, "text"));
+        }
+    }
+
+    @Test
+    void truncatedTailIsDropped() throws IOException {
+        Path path = tempDir.resolve("embeddings.log");
+        try (EmbeddingCache cache = new EmbeddingCache(path)) {
+            cache.put(MODEL, "first", new float[]{1f, 2f, 3f, 4f});
+            cache.put(MODEL, "second", new float[]{5f, 6f, 7f, 8f});
+            cache.put(MODEL, "third", new float[]{9f, 10f, 11f, 12f});
+        }
+        long intactSize = Files.size(path);
+        // 最后一条记录的向量只写了一部分
+        truncate(path, intactSize - 5);
+
+        try (EmbeddingCache cache = new EmbeddingCache(path)) {
+            assertEquals(2, cache.size());
+            assertArrayEquals(new float[]{5f, 6f, 7f, 8f}, cache.get(MODEL, "second"));
+            assertNull(cache.get(MODEL, "third"));
+            // 残缺部分已被截掉，新记录紧接在完整记录之后
+            cache.put(MODEL, "third", new float[]{9f, 10f, 11f, 12f});
+        }
+        assertEquals(intactSize, Files.size(path));
+        try (EmbeddingCache cache = new EmbeddingCache(path)) {
+            assertEquals(3, cache.size());
+            assertArrayEquals(new float[]{9f, 10f, 11f, 12f}, cache.get(MODEL, "third"));
+        }
+    }
+
+    @Test
+    void truncatedHeaderIsDropped() throws IOException {
+        Path path = tempDir.resolve("embeddings.log");
+        try (EmbeddingCache cache = new EmbeddingCache(path)) {
+            cache.put(MODEL, "first", new float[]{1f, 2f});
+        }
+        long intactSize = Files.size(path);
+        // 只写了下一条记录 key 的前 10 个字节
+        Files.write(path, new byte[10], StandardOpenOption.APPEND);
+
+        try (EmbeddingCache cache = new EmbeddingCache(path)) {
+            assertEquals(1, cache.size());
+            assertArrayEquals(new float[]{1f, 2f}, cache.get(MODEL, "first"));
+        }
+        assertEquals(intactSize, Files.size(path));
+    }
+
+    private static void truncate(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+}
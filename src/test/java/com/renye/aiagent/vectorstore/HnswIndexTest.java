@@ -0,0 +1,155 @@
+package com.renye.aiagent.vectorstore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HNSW 的召回率以暴力精确检索为基准：随机向量上 recall@10 应不低于 0.9，过滤条件和墓碑节点不出现在结果中
+ *
+ * @author 忍
+ */
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final int NODES = 3000;
+    private static final int QUERIES = 50;
+    private static final int K = 10;
+    private static final int EF_SEARCH = 128;
+
+    @Test
+    void recallAgainstExactSearch() {
+        SplittableRandom random = new SplittableRandom(42);
+        FloatVectorStorage vectors = build(random);
+        HnswIndex index = index(vectors);
+
+        double recall = averageRecall(random, vectors, index, null);
+        assertTrue(recall >= 0.9, "recall@" + K + " = " + recall);
+    }
+
+    @Test
+    void filteredSearchOnlyReturnsMatchingNodes() {
+        SplittableRandom random = new SplittableRandom(7);
+        FloatVectorStorage vectors = build(random);
+        HnswIndex index = index(vectors);
+        IntPredicate filter = node -> node % 3 == 0;
+
+        double recall = averageRecall(random, vectors, index, filter);
+        assertTrue(recall >= 0.85, "过滤后 recall@" + K + " = " + recall);
+    }
+
+    @Test
+    void tombstonedNodesAreSkippedButStillRoute() {
+        SplittableRandom random = new SplittableRandom(11);
+        FloatVectorStorage vectors = build(random);
+        HnswIndex index = index(vectors);
+        // 与 HnswVectorStore 一致：删除只打墓碑，检索时作为过滤条件排除，节点仍留在图中参与路由
+        BitSet deleted = new BitSet();
+        for (int node = 0; node < NODES; node += 2) {
+            deleted.set(node);
+        }
+        IntPredicate alive = node -> !deleted.get(node);
+
+        double recall = averageRecall(random, vectors, index, alive);
+        assertTrue(recall >= 0.85, "删除一半节点后 recall@" + K + " = " + recall);
+    }
+
+    @Test
+    void exactMatchIsTopResult() {
+        SplittableRandom random = new SplittableRandom(3);
+        FloatVectorStorage vectors = build(random);
+        HnswIndex index = index(vectors);
+        for (int node = 0; node < NODES; node += 97) {
+            List<ScoredNode> hits = index.search(vectors.query(vectors.vector(node)), 1, EF_SEARCH, null);
+            assertEquals(node, hits.get(0).node());
+            assertEquals(1.0f, hits.get(0).score(), 1e-4f);
+        }
+    }
+
+    @Test
+    void resultsAreSortedBestFirst() {
+        SplittableRandom random = new SplittableRandom(5);
+        FloatVectorStorage vectors = build(random);
+        HnswIndex index = index(vectors);
+        List<ScoredNode> hits = index.search(vectors.query(randomUnitVector(random)), K, EF_SEARCH, null);
+        assertEquals(K, hits.size());
+        for (int i = 1; i < hits.size(); i++) {
+            assertFalse(hits.get(i).score() > hits.get(i - 1).score());
+        }
+    }
+
+    @Test
+    void emptyIndexAndOutOfOrderInsert() {
+        FloatVectorStorage vectors = new FloatVectorStorage();
+        HnswIndex index = new HnswIndex(16, 100, vectors::similarity);
+        assertTrue(index.search(node -> 0f, K, EF_SEARCH, null).isEmpty());
+        vectors.add(randomUnitVector(new SplittableRandom(1)));
+        assertThrows(IllegalArgumentException.class, () -> index.insert(1));
+    }
+
+    private static FloatVectorStorage build(SplittableRandom random) {
+        FloatVectorStorage vectors = new FloatVectorStorage();
+        for (int i = 0; i < NODES; i++) {
+            vectors.add(randomUnitVector(random));
+        }
+        return vectors;
+    }
+
+    private static HnswIndex index(FloatVectorStorage vectors) {
+        HnswIndex index = new HnswIndex(16, 200, vectors::similarity);
+        for (int node = 0; node < vectors.size(); node++) {
+            index.insert(node);
+        }
+        return index;
+    }
+
+    private static double averageRecall(SplittableRandom random, FloatVectorStorage vectors, HnswIndex index,
+                                        IntPredicate filter) {
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = randomUnitVector(random);
+            Set<Integer> exact = exactTopK(vectors, query, filter);
+            for (ScoredNode hit : index.search(vectors.query(query), K, EF_SEARCH, filter)) {
+                if (filter != null) {
+                    assertTrue(filter.test(hit.node()), "结果中出现了被过滤的节点 " + hit.node());
+                }
+                if (exact.contains(hit.node())) {
+                    found++;
+                }
+            }
+        }
+        return (double) found / (QUERIES * K);
+    }
+
+    private static Set<Integer> exactTopK(FloatVectorStorage vectors, float[] query, IntPredicate filter) {
+        TopK best = new TopK(K);
+        for (int node = 0; node < vectors.size(); node++) {
+            if (filter == null || filter.test(node)) {
+                best.offer(node, vectors.exactSimilarity(query, node));
+            }
+        }
+        Set<Integer> nodes = new HashSet<>();
+        for (ScoredNode hit : best.sorted()) {
+            nodes.add(hit.node());
+        }
+        return nodes;
+    }
+
+    static float[] randomUnitVector(SplittableRandom random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (random.nextDouble() * 2 - 1);
+        }
+        return VectorMath.normalize(vector);
+    }
+}
@@ -0,0 +1,137 @@
+package com.renye.aiagent.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * int8 量化只用于建图和召回候选，量化相似度的误差应足够小；经全精度重排后，召回率应与全精度暴力检索接近
+ *
+ * @author 忍
+ */
+class Int8VectorStorageTest {
+
+    private static final int DIMENSIONS = 128;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void quantizedSimilarityIsCloseToExact() throws IOException {
+        SplittableRandom random = new SplittableRandom(1);
+        try (Int8VectorStorage storage = new Int8VectorStorage(VectorArena.direct(64))) {
+            float[][] vectors = new float[200][];
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] = randomUnitVector(random);
+                storage.add(vectors[i]);
+            }
+            float[] query = randomUnitVector(random);
+            HnswIndex.QuerySimilarity approximate = storage.query(query);
+            for (int node = 0; node < vectors.length; node++) {
+                float exact = VectorMath.dot(query, vectors[node]);
+                assertEquals(exact, approximate.to(node), 0.02f);
+                assertEquals(exact, storage.exactSimilarity(query, node), 1e-5f);
+                assertEquals(VectorMath.dot(vectors[0], vectors[node]), storage.similarity(0, node), 0.02f);
+            }
+        }
+    }
+
+    @Test
+    void fullPrecisionVectorsAreKeptOffHeap() throws IOException {
+        SplittableRandom random = new SplittableRandom(2);
+        for (VectorArena arena : List.of(VectorArena.direct(8), VectorArena.mapped(tempDir, 8))) {
+            try (Int8VectorStorage storage = new Int8VectorStorage(arena)) {
+                // 跨越多个段
+                float[][] vectors = new float[20][];
+                for (int i = 0; i < vectors.length; i++) {
+                    vectors[i] = randomUnitVector(random);
+                    storage.add(vectors[i]);
+                }
+                for (int node = 0; node < vectors.length; node++) {
+                    assertArrayEquals(vectors[node], storage.vector(node));
+                }
+                assertTrue(storage.isApproximate());
+                assertEquals(20L * DIMENSIONS + 20L * Float.BYTES, storage.heapBytes());
+                assertTrue(storage.offHeapBytes() >= 20L * DIMENSIONS * Float.BYTES);
+            }
+        }
+    }
+
+    @Test
+    void recallWithRerankMatchesExactSearch() throws IOException {
+        SplittableRandom random = new SplittableRandom(3);
+        int nodes = 2000;
+        int k = 10;
+        int rerankFactor = 4;
+        FloatVectorStorage exact = new FloatVectorStorage();
+        try (Int8VectorStorage storage = new Int8VectorStorage(VectorArena.direct(256))) {
+            for (int i = 0; i < nodes; i++) {
+                float[] vector = randomUnitVector(random);
+                exact.add(vector);
+                storage.add(vector);
+            }
+            HnswIndex index = new HnswIndex(16, 200, storage::similarity);
+            for (int node = 0; node < nodes; node++) {
+                index.insert(node);
+            }
+            int found = 0;
+            int queries = 30;
+            for (int q = 0; q < queries; q++) {
+                float[] query = randomUnitVector(random);
+                // 与 HnswVectorStore 一致：按量化相似度多召回 rerankFactor 倍候选，再用全精度重排
+                TopK reranked = new TopK(k);
+                for (ScoredNode hit : index.search(storage.query(query), k * rerankFactor, 128, null)) {
+                    reranked.offer(hit.node(), storage.exactSimilarity(query, hit.node()));
+                }
+                Set<Integer> expected = exactTopK(exact, query, k);
+                for (ScoredNode hit : reranked.sorted()) {
+                    if (expected.contains(hit.node())) {
+                        found++;
+                    }
+                }
+            }
+            double recall = (double) found / (queries * k);
+            assertTrue(recall >= 0.9, "int8 + 重排 recall@" + k + " = " + recall);
+        }
+    }
+
+    @Test
+    void zeroVectorAndDimensionMismatch() throws IOException {
+        try (Int8VectorStorage storage = new Int8VectorStorage(VectorArena.direct(4))) {
+            storage.add(new float[DIMENSIONS]);
+            assertEquals(0f, storage.query(randomUnitVector(new SplittableRandom(4))).to(0));
+            assertThrows(IllegalArgumentException.class, () -> storage.add(new float[DIMENSIONS + 1]));
+        }
+    }
+
+    private static Set<Integer> exactTopK(FloatVectorStorage vectors, float[] query, int k) {
+        TopK best = new TopK(k);
+        for (int node = 0; node < vectors.size(); node++) {
+            best.offer(node, vectors.exactSimilarity(query, node));
+        }
+        Set<Integer> nodes = new HashSet<>();
+        for (ScoredNode hit : best.sorted()) {
+            nodes.add(hit.node());
+        }
+        return nodes;
+    }
+
+    private static float[] randomUnitVector(SplittableRandom random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (random.nextDouble() * 2 - 1);
+        }
+        return VectorMath.normalize(vector);
+    }
+}
@@ -0,0 +1,124 @@
+package com.renye.aiagent.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 分片并行扫描再用 TopK 合并的结果，应与对全部文档做一次精确扫描的 topK 完全一致（含标签过滤和删除）
+ *
+ * @author 忍
+ */
+class ShardedVectorStoreTest {
+
+    private static final int DIMENSIONS = 32;
+    private static final int DOCUMENTS = 500;
+    private static final int QUERIES = 20;
+    private static final int K = 10;
+    private static final List<String> TAGS = List.of("java", "redis", "mysql");
+
+    @Test
+    void parallelShardScanMatchesSingleExactScan() throws IOException {
+        SplittableRandom random = new SplittableRandom(5);
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, float[]> vectors = new LinkedHashMap<>();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            String id = "doc-" + i;
+            documents.put(id, new Document(id, "内容 " + i, Map.of(TagIndex.TAG_METADATA_KEY, TAGS.get(i % TAGS.size()))));
+            vectors.put(id, randomVector(random));
+        }
+
+        // 并行阈值为 0 时总是并行扫描，阈值很大时由调用线程逐个分片扫描，两者都应与精确扫描一致
+        for (int parallelThreshold : new int[]{0, Integer.MAX_VALUE}) {
+            ShardedVectorStore store = new ShardedVectorStore(null, 4, parallelThreshold, FloatVectorStorage::new, 1);
+            try {
+                store.addEmbedded(new ArrayList<>(documents.values()), new ArrayList<>(vectors.values()));
+                assertMatchesExactScan(store, documents, vectors, random);
+
+                // 删除一部分，并用新向量覆盖写入另一部分（旧节点打墓碑）
+                List<String> deleted = new ArrayList<>();
+                List<Document> replaced = new ArrayList<>();
+                List<float[]> replacedVectors = new ArrayList<>();
+                for (int i = 0; i < DOCUMENTS; i += 7) {
+                    deleted.add("doc-" + i);
+                }
+                for (int i = 3; i < DOCUMENTS; i += 11) {
+                    String id = "doc-" + i;
+                    if (!deleted.contains(id)) {
+                        float[] vector = randomVector(random);
+                        replaced.add(documents.get(id));
+                        replacedVectors.add(vector);
+                        vectors.put(id, vector);
+                    }
+                }
+                store.delete(deleted);
+                store.addEmbedded(replaced, replacedVectors);
+                Map<String, Document> live = new LinkedHashMap<>(documents);
+                Map<String, float[]> liveVectors = new LinkedHashMap<>(vectors);
+                deleted.forEach(live::remove);
+                deleted.forEach(liveVectors::remove);
+
+                assertEquals(live.size(), store.size());
+                assertMatchesExactScan(store, live, liveVectors, random);
+            } finally {
+                store.close();
+            }
+        }
+    }
+
+    private static void assertMatchesExactScan(ShardedVectorStore store, Map<String, Document> documents,
+                                               Map<String, float[]> vectors, SplittableRandom random) {
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = randomVector(random);
+            String tag = q % 2 == 0 ? null : TAGS.get(q % TAGS.size());
+            SearchRequest.Builder builder = SearchRequest.builder().query("q").topK(K);
+            if (tag != null) {
+                builder.filterExpression(new Filter.Expression(Filter.ExpressionType.EQ,
+                        new Filter.Key(TagIndex.TAG_METADATA_KEY), new Filter.Value(tag)));
+            }
+
+            List<String> actual = store.similaritySearch(query, builder.build()).stream().map(Document::getId).toList();
+
+            assertEquals(exactTopK(query, documents, vectors, tag), actual, "标签过滤: " + tag);
+        }
+    }
+
+    private static List<String> exactTopK(float[] query, Map<String, Document> documents, Map<String, float[]> vectors,
+                                          String tag) {
+        float[] normalizedQuery = VectorMath.normalize(query);
+        Map<String, Float> scores = new LinkedHashMap<>();
+        for (Map.Entry<String, float[]> entry : vectors.entrySet()) {
+            Object tags = documents.get(entry.getKey()).getMetadata().get(TagIndex.TAG_METADATA_KEY);
+            if (tag == null || TagIndex.parseTags(tags).contains(tag)) {
+                scores.put(entry.getKey(), VectorMath.dot(normalizedQuery, VectorMath.normalize(entry.getValue())));
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Float>comparingByValue(Comparator.reverseOrder()))
+                .limit(K)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * 各分量非负，相似度都为正，不会被默认的相似度阈值 0 过滤掉
+     */
+    private static float[] randomVector(SplittableRandom random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextDouble();
+        }
+        return vector;
+    }
+}
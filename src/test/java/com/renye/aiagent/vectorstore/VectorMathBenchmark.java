@@ -0,0 +1,110 @@
+package com.renye.aiagent.vectorstore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 标量内核与 SIMD 内核在不同 embedding 维度下的单次打分耗时对比。
+ * <p>
+ * 运行方式：先 mvn -Psimd test-compile，再以 main 方法启动本类（需要 test classpath），或在 IDE 中直接运行 main。
+ * 每次打分都在 1024 个向量上轮换，避免只测到 L1 缓存里的同一个向量。
+ *
+ * @author 忍
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class VectorMathBenchmark {
+
+    private static final int VECTORS = 1024;
+
+    // text-embedding-v2 为 1536 维
+    @Param({"128", "384", "768", "1536"})
+    private int dimension;
+
+    private final ScalarKernel scalar = new ScalarKernel();
+    private VectorMath.Kernel simd;
+
+    private float[] query;
+    private float[] floats;
+    private byte[] codes;
+    private int next;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        // SimdKernel 只在 -Psimd 构建中编译
+        simd = VectorMath.loadSimdKernel();
+        SplittableRandom random = new SplittableRandom(7);
+        query = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            query[i] = (float) random.nextDouble(-1, 1);
+        }
+        floats = new float[VECTORS * dimension];
+        codes = new byte[VECTORS * dimension];
+        for (int i = 0; i < floats.length; i++) {
+            floats[i] = (float) random.nextDouble(-1, 1);
+            codes[i] = (byte) random.nextInt(-127, 128);
+        }
+    }
+
+    private int nextOffset() {
+        next = (next + 1) & (VECTORS - 1);
+        return next * dimension;
+    }
+
+    @Benchmark
+    public float floatScalar() {
+        return scalar.dot(query, 0, floats, nextOffset(), dimension);
+    }
+
+    @Benchmark
+    public float floatSimd() {
+        return simd.dot(query, 0, floats, nextOffset(), dimension);
+    }
+
+    @Benchmark
+    public int int8Scalar() {
+        int offset = nextOffset();
+        return scalar.dotInt8(codes, 0, codes, offset, dimension);
+    }
+
+    @Benchmark
+    public int int8Simd() {
+        int offset = nextOffset();
+        return simd.dotInt8(codes, 0, codes, offset, dimension);
+    }
+
+    @Benchmark
+    public float floatInt8Scalar() {
+        return scalar.dotFloatInt8(query, codes, nextOffset(), dimension);
+    }
+
+    @Benchmark
+    public float floatInt8Simd() {
+        return simd.dotFloatInt8(query, codes, nextOffset(), dimension);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VectorMathBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
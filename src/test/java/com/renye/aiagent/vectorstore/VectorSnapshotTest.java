@@ -0,0 +1,171 @@
+package com.renye.aiagent.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 向量快照写入后读回应与原数据一致；文件被截断或不是快照文件时读取抛出 IOException，由调用方退回全量入库
+ *
+ * @author 忍
+ */
+class VectorSnapshotTest {
+
+    private static final String SOURCE_FILE_KEY = "sourceFile";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTrip() throws IOException {
+        InMemoryStore store = new InMemoryStore();
+        store.add(document("a-0", "HashMap 的扩容机制", "java-collections.pdf", 1), new float[]{0.6f, 0.8f, 0f});
+        store.add(document("a-1", "ConcurrentHashMap 的分段锁 \"quoted\"", "java-collections.pdf", 2), new float[]{0f, 0.6f, 0.8f});
+        store.add(document("b-0", "volatile 与 happens-before", "jmm.pdf", 1), new float[]{1f, 0f, 0f});
+        Map<String, String> fileHashes = new LinkedHashMap<>();
+        fileHashes.put("java-collections.pdf", "hash-1");
+        fileHashes.put("jmm.pdf", "hash-2");
+        Path path = tempDir.resolve("snapshot/kb.bin");
+
+        VectorSnapshot.write(path, "text-embedding-v2", "chunk:512/64", fileHashes, store, SOURCE_FILE_KEY);
+        VectorSnapshot snapshot = VectorSnapshot.read(path);
+
+        assertEquals("text-embedding-v2", snapshot.getEmbeddingModel());
+        assertEquals("chunk:512/64", snapshot.getChunkingSignature());
+        assertEquals(3, snapshot.getDimension());
+        assertEquals(List.copyOf(fileHashes.entrySet()), List.copyOf(snapshot.getFileHashes().entrySet()));
+
+        List<VectorSnapshot.Entry> collections = snapshot.entriesOf("java-collections.pdf");
+        assertEquals(2, collections.size());
+        assertEntry(store, 0, collections.get(0));
+        assertEntry(store, 1, collections.get(1));
+        assertEntry(store, 2, snapshot.entriesOf("jmm.pdf").get(0));
+        assertTrue(snapshot.entriesOf("missing.pdf").isEmpty());
+        assertFalse(Files.exists(tempDir.resolve("snapshot/kb.bin.tmp")), "临时文件应已原子替换为正式文件");
+    }
+
+    @Test
+    void emptyStore() throws IOException {
+        Path path = tempDir.resolve("empty.bin");
+        VectorSnapshot.write(path, "m", "s", Map.of(), new InMemoryStore(), SOURCE_FILE_KEY);
+        VectorSnapshot snapshot = VectorSnapshot.read(path);
+        assertEquals(0, snapshot.getDimension());
+        assertTrue(snapshot.getFileHashes().isEmpty());
+    }
+
+    @Test
+    void truncatedTailIsRejected() throws IOException {
+        InMemoryStore store = new InMemoryStore();
+        for (int i = 0; i < 10; i++) {
+            store.add(document("d-" + i, "内容 " + i, "f.pdf", i), new float[]{i, 1f, 2f, 3f});
+        }
+        Path path = tempDir.resolve("truncated.bin");
+        VectorSnapshot.write(path, "m", "s", Map.of("f.pdf", "h"), store, SOURCE_FILE_KEY);
+        long size = Files.size(path);
+        // 截在最后一个向量中间，以及截在某条记录的字符串中间
+        for (long cut : new long[]{size - 3, size - 40, size / 2}) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+            assertThrows(IOException.class, () -> VectorSnapshot.read(path));
+        }
+    }
+
+    @Test
+    void notASnapshotFile() throws IOException {
+        Path path = tempDir.resolve("garbage.bin");
+        Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> VectorSnapshot.read(path));
+    }
+
+    private static void assertEntry(InMemoryStore store, int index, VectorSnapshot.Entry entry) {
+        Document expected = store.documents.get(index);
+        assertEquals(expected.getId(), entry.document().getId());
+        assertEquals(expected.getContent(), entry.document().getContent());
+        assertEquals(expected.getMetadata(), entry.document().getMetadata());
+        assertArrayEquals(store.vectors.get(index), entry.vector());
+    }
+
+    private static Document document(String id, String content, String sourceFile, int page) {
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put(SOURCE_FILE_KEY, sourceFile);
+        metadata.put("page_number", page);
+        metadata.put(TagIndex.TAG_METADATA_KEY, "java,并发");
+        return new Document(id, content, metadata);
+    }
+
+    /**
+     * 只实现快照读写用到的 forEachEmbedded
+     */
+    private static final class InMemoryStore implements KnowledgeVectorStore {
+
+        private final List<Document> documents = new ArrayList<>();
+        private final List<float[]> vectors = new ArrayList<>();
+
+        void add(Document document, float[] vector) {
+            documents.add(document);
+            vectors.add(vector);
+        }
+
+        @Override
+        public void forEachEmbedded(BiConsumer<Document, float[]> consumer) {
+            for (int i = 0; i < documents.size(); i++) {
+                consumer.accept(documents.get(i), vectors.get(i));
+            }
+        }
+
+        @Override
+        public int size() {
+            return documents.size();
+        }
+
+        @Override
+        public void addEmbedded(List<Document> documents, List<float[]> embeddings) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Document> similaritySearch(float[] queryEmbedding, SearchRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Document getById(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<Boolean> delete(List<String> idList) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}